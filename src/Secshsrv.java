@@ -2,15 +2,25 @@ import engine.SecretShare;
 import engine.SecretShare.PublicInfo;
 import engine.SecretShare.ShareInfo;
 import exceptions.SecretShareException;
+import math.BigIntStringChecksum;
 import math.BigIntUtilities;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import server.BinaryShareProtocol;
+import server.BinaryShareReader;
+import server.BlockingServer;
+import server.RequestHandler;
+import server.RequestDecoder;
+import server.SelectorServer;
+import server.ShareTokenizer;
+
 import java.math.BigInteger;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
 
 /**
  * Created by philipp on 29.06.15.
@@ -19,77 +29,40 @@ import java.util.List;
 public class Secshsrv {
 
     final static int portNumber = 8080;
-    final static String splitCharacter = "|";
+    private static final byte[] bigintcsPrefix = BigIntStringChecksum.PREFIX_BIGINT_DASH_CHECKSUM.getBytes();
+    //10^18 is the biggest power of ten whose digits all fit into one long
+    private static final int digitsPerChunk = 18;
+    private static final BigInteger chunkMultiplier = BigInteger.TEN.pow(digitsPerChunk);
 
+    /**
+     * usage: Secshsrv [nio|virtual|pool] [threads]
+     *   nio     - selector loop, combines run on a pool of 'threads' workers (default)
+     *   virtual - blocking reads, one virtual thread per connection
+     *   pool    - blocking reads on a fixed pool of 'threads' platform threads
+     * threads defaults to the number of available processors.
+     */
     public static void main(String[] args) {
-        String incomingdata = getDataFromSocket();
-        Integer totalNumberOfShares = extractTotalNumberOfShares(incomingdata);
-        Integer numberOfSharesToCombine = extractNumberOfSharesToCombine(incomingdata);
-        List<String> splitInputString = splitStringAtChar(incomingdata);
-        CombineInput input = CombineInput.parse(totalNumberOfShares, numberOfSharesToCombine, splitInputString);
-        CombineOutput output = input.output();
-        System.out.println(output.showPlaintext());
-    }
-
-    private static String getDataFromSocket()
-    {
-        String inputString ="";
-        try {
-            ServerSocket serverSocket = new ServerSocket(portNumber);
-            Socket clientSocket = serverSocket.accept();
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(clientSocket.getInputStream()));
-            String inputLine;
-
-            while ((inputLine = in.readLine()) != null) {
-                inputString += inputLine;
-            }
-            clientSocket.close();
-            serverSocket.close();
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
+        String mode = (args.length > 0) ? args[0] : "nio";
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+                                        : Runtime.getRuntime().availableProcessors();
+        RequestHandler handler = new CombineHandler();
+        //each mode runs until the process is killed: one resident process serves all combines
+        switch (mode) {
+            case "nio":
+                new SelectorServer(portNumber, handler, threads).run();
+                break;
+            case "virtual":
+                new BlockingServer(portNumber, handler,
+                        BlockingServer.newThreadPerConnectionExecutor()).run();
+                break;
+            case "pool":
+                new BlockingServer(portNumber, handler,
+                        Executors.newFixedThreadPool(threads)).run();
+                break;
+            default:
+                System.err.println("unknown mode '" + mode + "', use one of: nio virtual pool");
+                System.exit(1);
         }
-        return inputString;
-    }
-
-    static Integer extractNumberOfSharesToCombine(String incomingdata)
-    {
-        //numberofsharestocombine (k) is on 2nd position: incomingdata=n|k|modulus|$Shares|
-        String incomingdataWithoutN = incomingdata.substring(incomingdata.indexOf(splitCharacter) + 1);
-        String kstring = incomingdataWithoutN.substring(0, incomingdataWithoutN.indexOf(splitCharacter));
-        return new Integer(kstring);
-    }
-
-    static Integer extractTotalNumberOfShares(String incomingdata)
-    {
-        //totalnumberofshares (n) is on first position: incomingdata=n|k|modulus|$Shares|
-        String nstring = incomingdata.substring(0, incomingdata.indexOf(splitCharacter));
-        return new Integer(nstring);
-    }
-
-    static List<String> splitStringAtChar(String incomingdata)
-    {
-        List<String> result = new ArrayList<>();
-        List<Integer> splitCharIndizes = new ArrayList<>();
-        for (int index = incomingdata.indexOf(splitCharacter);
-             index >= 0;
-             index = incomingdata.indexOf(splitCharacter, index + 1))
-        {
-            splitCharIndizes.add(index);
-        }
-        for (int j = 0; j < splitCharIndizes.size(); j++) {
-            Integer i = splitCharIndizes.get(j);
-            //don't consider the first two as they are headers: n|k|modulus|$Shares|
-            //extract shares out of |share0|share1|...|
-            //the last splitChar marks the end of the Stream
-            if (i > splitCharIndizes.get(1) && (j < splitCharIndizes.size() - 1))
-            {
-                result.add(incomingdata.substring(i + 1, splitCharIndizes.get(j + 1)));
-            }
-        }
-        return result;
     }
 
     public static BigInteger parseBigInteger(String value) {
@@ -113,10 +86,68 @@ public class Secshsrv {
         return ret;
     }
 
+    /**
+     * Same as parseBigInteger(String), but reads the value straight from a byte buffer.
+     * Decimal values are converted without building a String first.
+     */
+    public static BigInteger parseBigInteger(byte[] value, int offset, int length) {
+        if (startsWithBigintcsPrefix(value, offset, length)) {
+            //the checksum is defined on the string form, so this one needs the String
+            return parseBigInteger(new String(value, offset, length));
+        }
+
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if ((i < end) && ((value[i] == '-') || (value[i] == '+'))) {
+            negative = (value[i] == '-');
+            i++;
+        }
+        if (i == end) {
+            throw new SecretShareException("Failed to parse integer because: no digits in '" +
+                    new String(value, offset, length) + "'");
+        }
+
+        //first chunk takes the odd digits, every following chunk has exactly digitsPerChunk digits
+        BigInteger ret = BigInteger.ZERO;
+        int chunkEnd = i + ((end - i - 1) % digitsPerChunk) + 1;
+        while (i < end) {
+            long chunk = 0;
+            for (; i < chunkEnd; i++) {
+                int digit = value[i] - '0';
+                if ((digit < 0) || (digit > 9)) {
+                    throw new SecretShareException("Failed to parse integer because: For input string: \"" +
+                            new String(value, offset, length) + "\"");
+                }
+                chunk = (chunk * 10) + digit;
+            }
+            ret = (ret.signum() == 0) ? BigInteger.valueOf(chunk)
+                                      : ret.multiply(chunkMultiplier).add(BigInteger.valueOf(chunk));
+            chunkEnd += digitsPerChunk;
+        }
+        return negative ? ret.negate() : ret;
+    }
+
+    private static boolean startsWithBigintcsPrefix(byte[] value, int offset, int length) {
+        if (length < bigintcsPrefix.length) {
+            return false;
+        }
+        for (int i = 0; i < bigintcsPrefix.length; i++) {
+            if (Character.toLowerCase((char) value[offset + i]) != bigintcsPrefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static class CombineInput
     {
 
         private final List<ShareInfo> shares = new ArrayList<>();
+        // the same shares, so each new share is checked for duplicates in O(1):
+        //  x -> value, and value -> x
+        private final Map<Integer, BigInteger> valueOfX = new HashMap<>();
+        private final Map<BigInteger, Integer> xOfValue = new HashMap<>();
         private Integer k           = null;
         // optional:  if null, then do not use modulus
         private BigInteger modulus = null;
@@ -126,66 +157,104 @@ public class Secshsrv {
         // not an input.  used to cache the PublicInfo, so that after the first ShareInfo is
         //  created with this PublicInfo, then they are all created with the same PublicInfo
         private PublicInfo publicInfo;
+        // number of shares added so far, duplicates included;
+        //  addShare(shareInt) numbers the shares 1, 2, 3... with it
+        private int sharesSeen = 0;
 
         // constructor
         public static CombineInput parse(Integer totalNumberOfShares,
                                          Integer numberOfSharesNeededToCombine,
                                          //Integer modulus,
                                          List<String> allShares)
+        {
+            CombineInput ret = start(totalNumberOfShares, numberOfSharesNeededToCombine);
+            for (String shareStr : allShares) {
+                ret.addShare(parseBigInteger(shareStr));
+            }
+            ret.checkEnoughShares();
+            return ret;
+        }
+
+        /**
+         * Incremental version of parse(): call addShare() for every share, in order,
+         * then checkEnoughShares().
+         */
+        public static CombineInput start(Integer totalNumberOfShares,
+                                         Integer numberOfSharesNeededToCombine)
+        {
+            return start(totalNumberOfShares, numberOfSharesNeededToCombine, null);
+        }
+
+        /**
+         * @param modulus the prime modulus the shares were split with, or null
+         */
+        public static CombineInput start(Integer totalNumberOfShares,
+                                         Integer numberOfSharesNeededToCombine,
+                                         BigInteger modulus)
         {
             CombineInput ret = new CombineInput();
 
                     ret.k = numberOfSharesNeededToCombine;
                     ret.n = totalNumberOfShares;
-                    //TODO we don't use modulus for performance reasons
-//                    ret.modulus = modulus;
-                                    ret.modulus = null;
+                    ret.modulus = modulus;
 
-            SecretShare.PublicInfo publicInfo = new SecretShare.PublicInfo(ret.n, ret.k, ret.modulus,"");
-            for (int i = 0; i < allShares.size(); i++) {
-                String shareStr = allShares.get(i);
-                BigInteger shareInt = parseBigInteger(shareStr);
-                //the combine implementation requires the share count to start with 1 and not 0 !!!
-                ret.addIfNotDuplicate(new ShareInfo(i + 1, shareInt, publicInfo));
+            ret.publicInfo = new SecretShare.PublicInfo(ret.n, ret.k, ret.modulus,"");
+            return ret;
+        }
+
+        public void addShare(BigInteger shareInt)
+        {
+            //the combine implementation requires the share count to start with 1 and not 0 !!!
+            addShare(sharesSeen + 1, shareInt);
+        }
+
+        /**
+         * @param x the index the share was created for, starting with 1
+         */
+        public void addShare(int x, BigInteger shareInt)
+        {
+            if (x < 1)
+            {
+                throw new SecretShareException("share x:" + x + " must be 1 or bigger");
             }
-            if (ret.shares.size() < ret.k)
+            sharesSeen++;
+            addIfNotDuplicate(new ShareInfo(x, shareInt, publicInfo));
+        }
+
+        public void checkEnoughShares()
+        {
+            if (shares.size() < k)
             {
-                throw new SecretShareException("k set to " + ret.k + " but only " +
-                        ret.shares.size() + " shares provided");
+                throw new SecretShareException("k set to " + k + " but only " +
+                        shares.size() + " shares provided");
             }
-            return ret;
         }
 
         private void addIfNotDuplicate(ShareInfo add)
         {
-            boolean shouldadd = true;
-            for (ShareInfo share : this.shares)
+            BigInteger sameX = valueOfX.get(add.getX());
+            if (sameX != null)
             {
-                if (share.getX() == add.getX())
+                if (! sameX.equals(add.getShare()))
                 {
-                    if (! share.getShare().equals(add.getShare()))
-                    {
-                        throw new SecretShareException("share x:" + share.getX() +
-                                " was entered with two different values " +
-                                "(" + share.getShare() + ") and (" +
-                                add.getShare() + ")");
-                    }
-                    else
-                    {
-                        shouldadd = false;
-                    }
-                }
-                else if (share.getShare().equals(add.getShare()))
-                {
-                    throw new SecretShareException("duplicate share values at x:" +
-                            share.getX() + " and x:" +
-                            add.getX());
+                    throw new SecretShareException("share x:" + add.getX() +
+                            " was entered with two different values " +
+                            "(" + sameX + ") and (" +
+                            add.getShare() + ")");
                 }
+                // the same share twice: keep the first
+                return;
             }
-            if (shouldadd)
+            Integer sameValue = xOfValue.get(add.getShare());
+            if (sameValue != null)
             {
-                this.shares.add(add);
+                throw new SecretShareException("duplicate share values at x:" +
+                        sameValue + " and x:" +
+                        add.getX());
             }
+            valueOfX.put(add.getX(), add.getShare());
+            xOfValue.put(add.getShare(), add.getX());
+            this.shares.add(add);
         }
 
 
@@ -208,10 +277,355 @@ public class Secshsrv {
         }
     }
 
+    /**
+     * Handles requests of the form n|k|modulus|$Shares| and answers each with its plaintext.
+     * Line breaks are not part of a request, the client may wrap it over several lines;
+     * a ';' after the last '|' ends a request, so several can be sent on one connection.
+     * Binary requests are handled as well, see BinaryShareProtocol.
+     */
+    public static class CombineHandler implements RequestHandler
+    {
+        @Override
+        public RequestDecoder newDecoder()
+        {
+            return new ProtocolDecoder();
+        }
+    }
+
+    /**
+     * Looks at the first byte of the connection and hands everything to the
+     * text or the binary decoder, see BinaryShareProtocol.isBinary().
+     */
+    static class ProtocolDecoder implements RequestDecoder
+    {
+        private RequestDecoder protocol = null;
+
+        @Override
+        public void decode(ByteBuffer in, List<Request> completed)
+        {
+            if (protocol == null)
+            {
+                if (! in.hasRemaining())
+                {
+                    return;
+                }
+                protocol = BinaryShareProtocol.isBinary(in.get(in.position())) ? new BinaryCombineDecoder()
+                                                                               : new CombineDecoder();
+            }
+            protocol.decode(in, completed);
+        }
+
+        @Override
+        public void endOfInput(List<Request> completed)
+        {
+            if (protocol != null)
+            {
+                protocol.endOfInput(completed);
+            }
+        }
+
+        @Override
+        public byte[] failure(RuntimeException e)
+        {
+            return (protocol != null) ? protocol.failure(e) : CombineDecoder.textFailure(e);
+        }
+    }
+
+    /**
+     * Parses the requests while they arrive: each share is converted as soon as its
+     * closing '|' has been received, the raw request text is never kept.
+     */
+    static class CombineDecoder implements RequestDecoder, ShareTokenizer.Listener
+    {
+        private final ShareTokenizer tokenizer = new ShareTokenizer(this);
+        // where end() puts the finished request, only set during decode() and endOfInput()
+        private List<Request> completed = null;
+
+        // the request being read:
+        private Integer n = null;
+        private CombineInput input = null;
+        private SecretShareException error = null;
+
+        @Override
+        public void decode(ByteBuffer in, List<Request> completed)
+        {
+            this.completed = completed;
+            try
+            {
+                tokenizer.consume(in);
+            }
+            finally
+            {
+                this.completed = null;
+            }
+        }
+
+        @Override
+        public void endOfInput(List<Request> completed)
+        {
+            this.completed = completed;
+            try
+            {
+                tokenizer.endOfInput();
+            }
+            finally
+            {
+                this.completed = null;
+            }
+        }
+
+        @Override
+        public byte[] failure(RuntimeException e)
+        {
+            return textFailure(e);
+        }
+
+        static byte[] textFailure(RuntimeException e)
+        {
+            return ("ERROR: " + e.getMessage() + "\n").getBytes();
+        }
+
+        @Override
+        public void totalNumberOfShares(int totalNumberOfShares)
+        {
+            n = totalNumberOfShares;
+        }
+
+        @Override
+        public void numberOfSharesToCombine(int k)
+        {
+            input = CombineInput.start(n, k);
+        }
+
+        @Override
+        public void modulus(byte[] token, int offset, int length)
+        {
+            // deliberately ignored, and not even parsed: text requests have always been combined
+            // without a modulus [see CombineInput.start(n, k)], so existing clients may send any
+            // placeholder here, and honouring it would change their answers.
+            // Clients that want a modular combine use the binary protocol, which has a modulus field.
+        }
+
+        @Override
+        public void share(byte[] token, int offset, int length)
+        {
+            input.addShare(parseBigInteger(token, offset, length));
+        }
+
+        @Override
+        public void error(SecretShareException e)
+        {
+            error = e;
+        }
+
+        @Override
+        public void end()
+        {
+            final CombineInput request = input;
+            final SecretShareException requestError = error;
+            n = null;
+            input = null;
+            error = null;
+
+            completed.add(new Request()
+            {
+                @Override
+                public byte[] respond()
+                {
+                    if (requestError != null)
+                    {
+                        throw requestError;
+                    }
+                    if (request == null)
+                    {
+                        throw new SecretShareException("incomplete request, expected n|k|modulus|$Shares|");
+                    }
+                    request.checkEnoughShares();
+                    return (request.output().showPlaintext() + "\n").getBytes();
+                }
+            });
+        }
+    }
+
+    /**
+     * Binary counterpart of CombineDecoder, see BinaryShareProtocol for the frame layout.
+     * Shares arrive as magnitudes with their x, so there is no text conversion at all.
+     */
+    static class BinaryCombineDecoder implements RequestDecoder, BinaryShareReader.Listener
+    {
+        private final BinaryShareReader reader = new BinaryShareReader(this);
+        // where endFrame() puts the finished request, only set during decode()
+        private List<Request> completed = null;
+
+        // the frame being read:
+        private boolean batch = false;
+        private List<BinaryShareSet> shareSets = null;
+        private BinaryShareSet current = null;
+
+        @Override
+        public void decode(ByteBuffer in, List<Request> completed)
+        {
+            this.completed = completed;
+            try
+            {
+                //consume() stops after each frame, so loop for pipelined frames
+                while (in.hasRemaining())
+                {
+                    reader.consume(in);
+                }
+            }
+            finally
+            {
+                this.completed = null;
+            }
+        }
+
+        @Override
+        public void endOfInput(List<Request> completed)
+        {
+            if (! reader.isBetweenFrames())
+            {
+                throw new SecretShareException("incomplete binary request");
+            }
+        }
+
+        @Override
+        public byte[] failure(RuntimeException e)
+        {
+            return BinaryShareProtocol.createErrorResponse(e.getMessage());
+        }
+
+        @Override
+        public void startFrame(boolean isBatch)
+        {
+            batch = isBatch;
+            shareSets = new ArrayList<>();
+        }
+
+        @Override
+        public void header(int totalNumberOfShares, int numberOfSharesToCombine)
+        {
+            current = new BinaryShareSet(totalNumberOfShares, numberOfSharesToCombine);
+        }
+
+        @Override
+        public void modulus(byte[] magnitude, int offset, int length)
+        {
+            current.modulus = new BigInteger(1, Arrays.copyOfRange(magnitude, offset, offset + length));
+        }
+
+        @Override
+        public void share(int x, byte[] magnitude, int offset, int length)
+        {
+            current.add(x, new BigInteger(1, Arrays.copyOfRange(magnitude, offset, offset + length)));
+        }
+
+        @Override
+        public void error(SecretShareException e)
+        {
+            current.error = e;
+        }
+
+        @Override
+        public void endShareSet()
+        {
+            shareSets.add(current);
+            current = null;
+        }
+
+        @Override
+        public void endFrame()
+        {
+            final List<BinaryShareSet> sets = shareSets;
+            shareSets = null;
+            if (batch)
+            {
+                completed.add(new Request()
+                {
+                    @Override
+                    public byte[] respond()
+                    {
+                        //one failed secret does not fail the others
+                        BinaryShareProtocol.BatchResponse ret = new BinaryShareProtocol.BatchResponse();
+                        for (BinaryShareSet set : sets)
+                        {
+                            try
+                            {
+                                ret.addSecret(set.combine());
+                            }
+                            catch (RuntimeException e)
+                            {
+                                ret.addError(e.getMessage());
+                            }
+                        }
+                        return ret.toByteArray();
+                    }
+                });
+            }
+            else
+            {
+                completed.add(new Request()
+                {
+                    @Override
+                    public byte[] respond()
+                    {
+                        return BinaryShareProtocol.createResponse(sets.get(0).combine());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * One secret's shares from a binary frame.
+     */
+    static class BinaryShareSet
+    {
+        private final Integer n;
+        private final Integer k;
+        private BigInteger modulus = null;
+        private CombineInput input = null;
+        private SecretShareException error = null;
+
+        BinaryShareSet(Integer n, Integer k)
+        {
+            this.n = n;
+            this.k = k;
+        }
+
+        void add(int x, BigInteger share)
+        {
+            //the modulus comes after n and k, so the input can only be started with the first share
+            if (input == null)
+            {
+                input = CombineInput.start(n, k, modulus);
+            }
+            input.addShare(x, share);
+        }
+
+        BigInteger combine()
+        {
+            if (error != null)
+            {
+                throw error;
+            }
+            if (input == null)
+            {
+                throw new SecretShareException("no shares provided");
+            }
+            input.checkEnoughShares();
+            return input.output().getSecret();
+        }
+    }
+
     public static class CombineOutput
     {
         private BigInteger secret;
 
+        public BigInteger getSecret() {
+            return secret;
+        }
+
         public String showPlaintext() {
             return BigIntUtilities.Human.createHumanString(secret);
         }
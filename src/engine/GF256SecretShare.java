@@ -0,0 +1,269 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import exceptions.SecretShareException;
+import math.GF256;
+
+/**
+ * "Shamir's Secret Sharing" of a byte[], one byte at a time, in the field GF(2^8).
+ *
+ * SecretShare treats the whole secret as one BigInteger and needs a prime bigger than it,
+ *   which gets very expensive for secrets of more than a few thousand bits.
+ * Here every byte of the secret gets its own polynomial of degree k-1 over GF(256),
+ *   so there is no modulus to find, and every share is a byte[] exactly as long
+ *   as the secret.
+ *
+ * Up to 255 shares, with x = 1 to n.
+ *
+ * The inner loops use precomputed multiplication tables (see GF256.multiplicationRow),
+ *   and work through the secret in blocks, so they allocate nothing per byte.
+ */
+public class GF256SecretShare
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    public static final int MAXIMUM_SHARES = 255;
+
+    // bytes per block: the random coefficients for one block are drawn at once
+    private static final int BLOCK_SIZE = 4096;
+
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final int n;
+    private final int k;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inN number of shares to create, 1 to 255
+     * @param inK number of shares needed to combine, 1 to n
+     */
+    public GF256SecretShare(final int inN,
+                            final int inK)
+    {
+        if ((inN < 1) || (inN > MAXIMUM_SHARES))
+        {
+            throw new SecretShareException("n must be 1 to " + MAXIMUM_SHARES + ", was " + inN);
+        }
+        if ((inK < 1) || (inK > inN))
+        {
+            throw new SecretShareException("k must be 1 to n=" + inN + ", was " + inK);
+        }
+        n = inN;
+        k = inK;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    public int getN()
+    {
+        return n;
+    }
+
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+     * Split the secret into n shares.
+     *
+     * @param secret to split
+     * @return the shares, x = 1 to n
+     */
+    public List<Share> split(final byte[] secret)
+    {
+        return split(secret, SecureRandomPool.get());
+    }
+
+    /**
+     * Split the secret into n shares.
+     *
+     * @param secret to split
+     * @param random source of the random coefficients
+     * @return the shares, x = 1 to n
+     */
+    public List<Share> split(final byte[] secret,
+                             final Random random)
+    {
+        final int length = secret.length;
+        byte[][] data = new byte[n][length];
+
+        byte[][] multiplyByX = new byte[n][];
+        for (int i = 0; i < n; i++)
+        {
+            multiplyByX[i] = GF256.multiplicationRow(i + 1);
+        }
+
+        // coefficients[d] holds coefficient d+1 for every byte of the block
+        final byte[][] coefficients = new byte[k - 1][BLOCK_SIZE];
+        for (int start = 0; start < length; start += BLOCK_SIZE)
+        {
+            final int end = Math.min(start + BLOCK_SIZE, length);
+            for (byte[] coefficient : coefficients)
+            {
+                random.nextBytes(coefficient);
+            }
+            for (int i = 0; i < n; i++)
+            {
+                evaluate(multiplyByX[i], coefficients, secret, data[i], start, end);
+            }
+        }
+
+        List<Share> ret = new ArrayList<Share>(n);
+        for (int i = 0; i < n; i++)
+        {
+            ret.add(new Share(i + 1, data[i]));
+        }
+        return ret;
+    }
+
+    /**
+     * Combine k (or more, only the first k are used) shares to recover the secret.
+     *
+     * @param shares to use
+     * @return the secret
+     * @throws SecretShareException if there are fewer than k shares, or they do not match up
+     */
+    public byte[] combine(final List<Share> shares)
+    {
+        if (shares.size() < k)
+        {
+            throw new SecretShareException("Must have " + k + " shares to combine.  Only provided " +
+                                           shares.size());
+        }
+        final List<Share> use = shares.subList(0, k);
+        final int length = use.get(0).data.length;
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Share share : use)
+        {
+            if (share.data.length != length)
+            {
+                throw new SecretShareException("Shares have different lengths, " + length +
+                                               " and " + share.data.length);
+            }
+            if (! seen.add(share.x))
+            {
+                throw new SecretShareException("Duplicate share x=" + share.x);
+            }
+        }
+
+        // Lagrange weights at x=0:  w_i = product over j != i of  x_j / (x_j - x_i)
+        //   [subtraction is XOR]; then multiplying by w_i is a table lookup
+        byte[][] multiplyByWeight = new byte[k][];
+        for (int i = 0; i < k; i++)
+        {
+            int numerator = 1;
+            int denominator = 1;
+            for (int j = 0; j < k; j++)
+            {
+                if (j != i)
+                {
+                    numerator = GF256.mul(numerator, use.get(j).x);
+                    denominator = GF256.mul(denominator, use.get(j).x ^ use.get(i).x);
+                }
+            }
+            multiplyByWeight[i] = GF256.multiplicationRow(GF256.div(numerator, denominator));
+        }
+
+        byte[] ret = new byte[length];
+        for (int i = 0; i < k; i++)
+        {
+            final byte[] table = multiplyByWeight[i];
+            final byte[] data = use.get(i).data;
+            for (int b = 0; b < length; b++)
+            {
+                ret[b] ^= table[data[b] & 0xFF];
+            }
+        }
+        return ret;
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    /**
+     * Horner's rule for bytes start to end-1:
+     *   out = ((c[k-1] * x + c[k-2]) * x + ... + c[1]) * x + secret
+     */
+    private static void evaluate(final byte[] multiplyByX,
+                                 final byte[][] coefficients,
+                                 final byte[] secret,
+                                 final byte[] out,
+                                 final int start,
+                                 final int end)
+    {
+        final int degree = coefficients.length;
+        if (degree == 0)
+        {
+            System.arraycopy(secret, start, out, start, end - start);
+            return;
+        }
+        final byte[] highest = coefficients[degree - 1];
+        for (int b = start; b < end; b++)
+        {
+            final int offset = b - start;
+            int value = highest[offset] & 0xFF;
+            for (int d = degree - 2; d >= 0; d--)
+            {
+                value = (multiplyByX[value] ^ coefficients[d][offset]) & 0xFF;
+            }
+            out[b] = (byte) (multiplyByX[value] ^ secret[b]);
+        }
+    }
+
+    /**
+     * One share: the x value, and one byte of share for every byte of the secret.
+     */
+    public static class Share
+    {
+        private final int x;
+        private final byte[] data;
+
+        /**
+         * @param inX 1 to 255
+         * @param inData share bytes; not copied
+         */
+        public Share(final int inX,
+                     final byte[] inData)
+        {
+            if ((inX < 1) || (inX > MAXIMUM_SHARES))
+            {
+                throw new SecretShareException("x must be 1 to " + MAXIMUM_SHARES + ", was " + inX);
+            }
+            if (inData == null)
+            {
+                throw new SecretShareException("data cannot be null");
+            }
+            x = inX;
+            data = inData;
+        }
+
+        public final int getX()
+        {
+            return x;
+        }
+
+        /**
+         * @return the share bytes; not a copy
+         */
+        public final byte[] getData()
+        {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package engine;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import engine.SecretShare.PublicInfo;
+import engine.SecretShare.ShareInfo;
+import exceptions.SecretShareException;
+import math.InformationDispersal;
+
+/**
+ * Krawczyk's "secret sharing made short": computational secret sharing of a large payload.
+ *
+ * Split:
+ *   [a] encrypt the payload with a fresh random AES key,
+ *   [b] disperse the ciphertext with Rabin's IDA (InformationDispersal): piece x is |S|/k bytes,
+ *   [c] split only the short key with SecretShare (Shamir), share x goes with piece x.
+ * Combine reverses it with any k shares.
+ *
+ * So n shares take about n/k times the payload instead of n times.
+ *   The payload is only as safe as AES: with fewer than k shares the key is unknown,
+ *   but the pieces together hold the whole ciphertext.
+ *
+ * AES is used in CTR mode, so the ciphertext is as long as the payload.
+ *   A zero IV is fine because every key encrypts exactly one payload.
+ *
+ * Up to 255 shares, with x = 1 to n.
+ */
+public class KrawczykSecretShare
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    private static final String CIPHER = "AES/CTR/NoPadding";
+    private static final int KEY_BYTES = 16;
+
+    // the key is shared as 0x01 || key bytes, so it is never zero and keeps leading zeros
+    private static final int KEY_MARKER = 0x01;
+
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final int n;
+    private final int k;
+    private final PublicInfo publicInfo;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inN number of shares to create, 1 to 255
+     * @param inK number of shares needed to combine, 1 to n
+     */
+    public KrawczykSecretShare(final int inN,
+                               final int inK)
+    {
+        if ((inN < 1) || (inN > InformationDispersal.MAXIMUM_PIECES))
+        {
+            throw new SecretShareException("n must be 1 to " + InformationDispersal.MAXIMUM_PIECES +
+                                           ", was " + inN);
+        }
+        if ((inK < 1) || (inK > inN))
+        {
+            throw new SecretShareException("k must be 1 to n=" + inN + ", was " + inK);
+        }
+        n = inN;
+        k = inK;
+        publicInfo = new PublicInfo(inN, inK, SecretShare.getPrimeUsedFor192bitSecretPayload(),
+                                    "krawczyk");
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    public int getN()
+    {
+        return n;
+    }
+
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+     * Split the payload into n shares.
+     *
+     * @param payload to split
+     * @return the shares, x = 1 to n
+     */
+    public List<Share> split(final byte[] payload)
+    {
+        return split(payload, SecureRandomPool.get());
+    }
+
+    /**
+     * Split the payload into n shares.
+     *
+     * @param payload to split
+     * @param random for the AES key and the Shamir coefficients
+     * @return the shares, x = 1 to n
+     */
+    public List<Share> split(final byte[] payload,
+                             final Random random)
+    {
+        byte[] markedKey = new byte[KEY_BYTES + 1];
+        random.nextBytes(markedKey);
+        markedKey[0] = KEY_MARKER;
+
+        final byte[] ciphertext = crypt(Cipher.ENCRYPT_MODE, markedKey, payload);
+        final byte[][] pieces = InformationDispersal.disperse(ciphertext, n, k);
+        final List<ShareInfo> keyShares =
+            new SecretShare(publicInfo).split(new BigInteger(1, markedKey), random).getShareInfos();
+
+        List<Share> ret = new ArrayList<Share>(n);
+        for (int i = 0; i < n; i++)
+        {
+            ret.add(new Share(keyShares.get(i), pieces[i], payload.length));
+        }
+        return ret;
+    }
+
+    /**
+     * Combine k (or more, only the first k are used) shares to recover the payload.
+     *
+     * @param shares to use
+     * @return the payload
+     * @throws SecretShareException if there are fewer than k shares, or they do not match up
+     */
+    public byte[] combine(final List<Share> shares)
+    {
+        if (shares.size() < k)
+        {
+            throw new SecretShareException("Must have " + k + " shares to combine.  Only provided " +
+                                           shares.size());
+        }
+        final int length = shares.get(0).getPayloadLength();
+        List<ShareInfo> keyShares = new ArrayList<ShareInfo>(k);
+        int[] xs = new int[k];
+        byte[][] pieces = new byte[k][];
+        for (int i = 0; i < k; i++)
+        {
+            final Share share = shares.get(i);
+            if (share.getPayloadLength() != length)
+            {
+                throw new SecretShareException("Shares are for payloads of different lengths, " +
+                                               length + " and " + share.getPayloadLength());
+            }
+            keyShares.add(share.getKeyShare());
+            xs[i] = share.getX();
+            pieces[i] = share.getPiece();
+        }
+
+        final byte[] markedKey = new SecretShare(publicInfo).combine(keyShares).getSecret().toByteArray();
+        if ((markedKey.length != KEY_BYTES + 1) || (markedKey[0] != KEY_MARKER))
+        {
+            throw new SecretShareException("Key shares do not combine to a key");
+        }
+        final byte[] ciphertext = InformationDispersal.recover(xs, pieces, k, length);
+        return crypt(Cipher.DECRYPT_MODE, markedKey, ciphertext);
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private static byte[] crypt(final int mode,
+                                final byte[] markedKey,
+                                final byte[] input)
+    {
+        try
+        {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(mode,
+                        new SecretKeySpec(markedKey, 1, KEY_BYTES, "AES"),
+                        new IvParameterSpec(new byte[cipher.getBlockSize()]));
+            return cipher.doFinal(input);
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new SecretShareException("AES failed", e);
+        }
+    }
+
+    /**
+     * One share: a Shamir share of the key, and the dispersed piece of the ciphertext
+     *   for the same x.
+     */
+    public static class Share
+    {
+        private final ShareInfo keyShare;
+        private final byte[] piece;
+        private final int payloadLength;
+
+        /**
+         * @param inKeyShare Shamir share of the key; its x is the x of the piece
+         * @param inPiece dispersed ciphertext; not copied
+         * @param inPayloadLength length of the whole payload
+         */
+        public Share(final ShareInfo inKeyShare,
+                     final byte[] inPiece,
+                     final int inPayloadLength)
+        {
+            if (inKeyShare == null)
+            {
+                throw new SecretShareException("keyShare cannot be null");
+            }
+            if (inPiece == null)
+            {
+                throw new SecretShareException("piece cannot be null");
+            }
+            keyShare = inKeyShare;
+            piece = inPiece;
+            payloadLength = inPayloadLength;
+        }
+
+        public final int getX()
+        {
+            return keyShare.getX();
+        }
+
+        public final ShareInfo getKeyShare()
+        {
+            return keyShare;
+        }
+
+        /**
+         * @return the dispersed ciphertext; not a copy
+         */
+        public final byte[] getPiece()
+        {
+            return piece;
+        }
+
+        public final int getPayloadLength()
+        {
+            return payloadLength;
+        }
+    }
+}
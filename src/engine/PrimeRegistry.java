@@ -0,0 +1,415 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import exceptions.SecretShareException;
+import math.BigIntStringChecksum;
+
+/**
+ * Primes for secrets too big for the built-in primes (see SecretShare.createAppropriateModulusForSecret()).
+ *
+ * Generating a prime of thousands of bits takes seconds to minutes, so the registry:
+ *   [a] keeps one prime per size, sizes rounded up to a multiple of BUCKET_BITS,
+ *       so secrets of similar size share a prime,
+ *   [b] after handing out a prime, generates the next size up on a background (daemon) thread,
+ *   [c] appends every prime it generates to a cache file, and reads that file back at start up,
+ *       so a later run has the primes at once.
+ *   Primes read from the file are only checked (checksum when read, primality the first
+ *   time they are asked for), never trusted blindly.  If the file has several primes for
+ *   one size, the first one that checks out is used.
+ *
+ * The cache file is -Dssprimecache=path, by default ~/.secretshare/primes.txt;
+ *   -Dssprimecache= (empty) turns it off.  Lines are "bits bigintcs:...".
+ *
+ * The built-in 192, 384 and 4096 bit primes are not here: SecretShare checks each of them
+ *   once, the first time it is used.
+ */
+public final class PrimeRegistry
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    /** Prime sizes are multiples of this. */
+    public static final int BUCKET_BITS = 512;
+
+    private static final String CACHE_FILE_KEY = "ssprimecache";
+    private static final int CERTAINTY = 100;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The registry with the cache file from -Dssprimecache, created the first time it is used.
+     */
+    private static final class Default
+    {
+        static final PrimeRegistry INSTANCE = new PrimeRegistry(defaultCacheFile());
+    }
+
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    // can be null: no cache file
+    private final File cacheFile;
+
+    // bits -> the prime, generated or being generated, or read from the file and not yet checked
+    private final ConcurrentMap<Integer, Future<BigInteger>> primes =
+        new ConcurrentHashMap<Integer, Future<BigInteger>>();
+
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread ret = new Thread(runnable, "secretshare-primes");
+            ret.setDaemon(true);
+            ret.setPriority(Thread.MIN_PRIORITY);
+            return ret;
+        }
+    });
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inCacheFile where primes are kept between runs; null for none.
+     *        It does not have to exist yet.
+     */
+    public PrimeRegistry(final File inCacheFile)
+    {
+        cacheFile = inCacheFile;
+        if (cacheFile != null)
+        {
+            load();
+        }
+    }
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @return the registry used by SecretShare.createAppropriateModulusForSecret()
+     */
+    public static PrimeRegistry getDefault()
+    {
+        return Default.INSTANCE;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * @param secret any positive value
+     * @return a prime about a fifth bigger than the secret [as createRandomModulusForSecret()],
+     *         rounded up to a multiple of BUCKET_BITS
+     */
+    public BigInteger getPrimeForSecret(final BigInteger secret)
+    {
+        final int originalBitLength = secret.bitLength();
+        final int numbits = originalBitLength + (originalBitLength / 5);
+        return getPrime(roundUp(numbits));
+    }
+
+    /**
+     * Blocks until the prime is available: at once if it was cached or made in the background.
+     *
+     * @param bits a multiple of BUCKET_BITS
+     * @return a prime of exactly that many bits; always the same one for the same bits
+     */
+    public BigInteger getPrime(final int bits)
+    {
+        checkBits(bits);
+        BigInteger ret = null;
+        while (ret == null)
+        {
+            Future<BigInteger> future = primes.get(bits);
+            if (future == null)
+            {
+                FutureTask<BigInteger> task = new FutureTask<BigInteger>(new Generate(bits));
+                future = primes.putIfAbsent(bits, task);
+                if (future == null)
+                {
+                    future = task;
+                    task.run();
+                }
+            }
+            else if ((future instanceof FutureTask) && (! future.isDone()))
+            {
+                // a prime read from the file is checked on first use, and a prime still queued for
+                //   the background is made here rather than waited for; running a task that is
+                //   already running or done does nothing
+                ((FutureTask<BigInteger>) future).run();
+            }
+            try
+            {
+                ret = waitFor(future);
+            }
+            catch (ExecutionException e)
+            {
+                // forget it, so the next call generates again instead of failing for good
+                primes.remove(bits, future);
+                throw new SecretShareException("Prime generation failed", e.getCause());
+            }
+            if (ret == null)
+            {
+                // none of the cached primes checked out: forget them and generate one
+                primes.remove(bits, future);
+            }
+        }
+        prepare(bits + BUCKET_BITS);
+        return ret;
+    }
+
+    /**
+     * Start generating a prime in the background, unless there is one already.
+     *
+     * @param bits a multiple of BUCKET_BITS
+     */
+    public void prepare(final int bits)
+    {
+        checkBits(bits);
+        FutureTask<BigInteger> task = new FutureTask<BigInteger>(new Generate(bits));
+        if (primes.putIfAbsent(bits, task) == null)
+        {
+            background.execute(task);
+        }
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private static int roundUp(final int bits)
+    {
+        return ((bits + BUCKET_BITS - 1) / BUCKET_BITS) * BUCKET_BITS;
+    }
+
+    private static void checkBits(final int bits)
+    {
+        if ((bits <= 0) || ((bits % BUCKET_BITS) != 0))
+        {
+            throw new SecretShareException("bits must be a positive multiple of " + BUCKET_BITS +
+                                           ", was " + bits);
+        }
+    }
+
+    private static File defaultCacheFile()
+    {
+        final String property = System.getProperty(CACHE_FILE_KEY);
+        if (property == null)
+        {
+            return new File(new File(System.getProperty("user.home"), ".secretshare"), "primes.txt");
+        }
+        else if (property.trim().isEmpty())
+        {
+            return null;
+        }
+        return new File(property.trim());
+    }
+
+    private static BigInteger waitFor(final Future<BigInteger> future)
+        throws ExecutionException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Read the cache file; lines that do not parse, or whose checksum does not match, are skipped.
+     */
+    private void load()
+    {
+        if (! cacheFile.isFile())
+        {
+            return;
+        }
+        // bits -> the primes for that size, in file order
+        final Map<Integer, List<BigInteger>> candidates = new LinkedHashMap<Integer, List<BigInteger>>();
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final String[] fields = line.trim().split("\\s+");
+                if ((fields.length != 2) || line.startsWith("#"))
+                {
+                    continue;
+                }
+                final BigIntStringChecksum bics = BigIntStringChecksum.fromStringOrNull(fields[1]);
+                try
+                {
+                    final int bits = Integer.parseInt(fields[0]);
+                    if ((bics != null) && (bits > 0) && ((bits % BUCKET_BITS) == 0))
+                    {
+                        if (! candidates.containsKey(bits))
+                        {
+                            candidates.put(bits, new ArrayList<BigInteger>());
+                        }
+                        candidates.get(bits).add(bics.asBigInteger());
+                    }
+                }
+                catch (NumberFormatException e)
+                {
+                    // skip the line
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // without the cache, primes are generated as if it was not there
+        }
+        finally
+        {
+            close(reader);
+        }
+        for (Map.Entry<Integer, List<BigInteger>> entry : candidates.entrySet())
+        {
+            primes.putIfAbsent(entry.getKey(),
+                               new FutureTask<BigInteger>(new Check(entry.getKey(), entry.getValue())));
+        }
+    }
+
+    private synchronized void save(final int bits,
+                                   final BigInteger prime)
+    {
+        if (cacheFile == null)
+        {
+            return;
+        }
+        Writer writer = null;
+        try
+        {
+            final File directory = cacheFile.getAbsoluteFile().getParentFile();
+            if ((directory != null) && (! directory.isDirectory()))
+            {
+                directory.mkdirs();
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(cacheFile, true), UTF8);
+            writer.write(bits + " " + BigIntStringChecksum.create(prime).toString() + "\n");
+        }
+        catch (IOException e)
+        {
+            // the prime is still good for this run
+        }
+        finally
+        {
+            close(writer);
+        }
+    }
+
+    private static void close(final Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                // nothing more to do
+            }
+        }
+    }
+
+    /**
+     * Generates a prime and saves it.
+     */
+    private class Generate
+        implements Callable<BigInteger>
+    {
+        private final int bits;
+
+        public Generate(final int inBits)
+        {
+            bits = inBits;
+        }
+
+        @Override
+        public BigInteger call()
+        {
+            final BigInteger ret = BigInteger.probablePrime(bits, SecureRandomPool.get());
+            save(bits, ret);
+            return ret;
+        }
+    }
+
+    /**
+     * Checks the primes from the cache file for one size, in file order;
+     *   the first that is a prime of the right size, or null if none is.
+     */
+    private static class Check
+        implements Callable<BigInteger>
+    {
+        private final int bits;
+        private final List<BigInteger> candidates;
+
+        public Check(final int inBits,
+                     final List<BigInteger> inCandidates)
+        {
+            bits = inBits;
+            candidates = inCandidates;
+        }
+
+        @Override
+        public BigInteger call()
+        {
+            for (BigInteger prime : candidates)
+            {
+                if ((prime.bitLength() == bits) && prime.isProbablePrime(CERTAINTY))
+                {
+                    return prime;
+                }
+            }
+            return null;
+        }
+    }
+}
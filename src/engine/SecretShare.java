@@ -18,22 +18,37 @@ package engine;
 
 import java.io.PrintStream;
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 import exceptions.SecretShareException;
+import math.BerlekampWelch;
 import math.BigIntStringChecksum;
+import math.CombinationCursor;
 import math.CombinationGenerator;
+import math.CombinationRange;
 import math.EasyLinearEquation;
+import math.FixedPrimeField;
+import math.LagrangeInterpolation;
+import math.LongLimbField;
+import math.Mersenne127Field;
+import math.ModularField;
 import math.PolyEquationImpl;
+import math.RevolvingDoorCombinations;
+import math.VandermondeSolver;
 
 /**
  * Main class for the "Shamir's Secret Sharing" implementation.
@@ -57,6 +72,30 @@ public class SecretShare
     // class static data
     // ==================================================
 
+    /**
+     * How combine() recovers the secret.
+     */
+    public enum CombineAlgorithm
+    {
+        /** Lagrange interpolation at x=0: O(k^2), only computes the secret.  The default. */
+        LAGRANGE,
+        /** Gaussian elimination of the whole Vandermonde system (the original implementation). */
+        LINEAR_EQUATION
+    }
+
+    /**
+     * Use -Dsscombine=LINEAR_EQUATION to make combine() use the original algorithm,
+     *   e.g. to cross-check the Lagrange results on good shares.
+     *   Without a modulus they do not agree on bad shares, see combine(List, CombineAlgorithm).
+     */
+    private static final String COMBINE_ALGORITHM_KEY = "sscombine";
+
+    private static final CombineAlgorithm DEFAULT_COMBINE_ALGORITHM =
+        readCombineAlgorithm(System.getProperty(COMBINE_ALGORITHM_KEY));
+
+    // splitLazily() evaluates this many shares at a time
+    private static final int LAZY_SHARES = 64;
+
     // ==================================================
     // class static methods
     // ==================================================
@@ -105,9 +144,10 @@ public class SecretShare
         {
             //
             // if you make it here, you are 4000+ bits big.
-            // and this call is going to be really expensive
+            // generating a prime this big is really expensive, so the registry
+            // keeps them (and makes the next size up in the background)
             //
-            ret = createRandomModulusForSecret(secret);
+            ret = PrimeRegistry.getDefault().getPrimeForSecret(secret);
         }
         return ret;
     }
@@ -120,7 +160,7 @@ public class SecretShare
      */
     public static BigInteger createRandomModulusForSecret(BigInteger secret)
     {
-        Random random = new SecureRandom();
+        Random random = SecureRandomPool.get();
 
         return createRandomModulusForSecret(secret, random);
     }
@@ -183,7 +223,83 @@ public class SecretShare
     // All primes were tested via http://www.alpertron.com.ar/ECM.HTM
     // All primes were tested with 100,000 iterations of Miller-Rabin
 
+    /**
+     * The fixed primes are parsed and checked once, the first time they are used,
+     *   instead of on every call [lazy holder idiom: the JVM initializes each class once].
+     */
+    private static final class Prime4096
+    {
+        static final BigInteger VALUE = createPrimeUsedFor4096bigSecretPayload();
+    }
+    private static final class Prime384
+    {
+        static final BigInteger VALUE = createPrimeUsedFor384bitSecretPayload();
+        static final FixedPrimeField FIELD = new LongLimbField(VALUE);
+    }
+    private static final class Prime192
+    {
+        static final BigInteger VALUE = createPrimeUsedFor192bitSecretPayload();
+        static final FixedPrimeField FIELD = new LongLimbField(VALUE);
+    }
+    private static final class Prime127
+    {
+        static final FixedPrimeField FIELD = new Mersenne127Field();
+    }
+
     public static BigInteger getPrimeUsedFor4096bigSecretPayload()
+    {
+        return Prime4096.VALUE;
+    }
+
+    public static BigInteger getPrimeUsedFor384bitSecretPayload()
+    {
+        return Prime384.VALUE;
+    }
+
+    public static BigInteger getPrimeUsedFor192bitSecretPayload()
+    {
+        return Prime192.VALUE;
+    }
+
+    /**
+     * The Mersenne prime 2^127 - 1: the fastest modulus here (see Mersenne127Field),
+     *   for secrets below 2^127 - 1, such as a 16 byte key with its top bit clear.
+     *   It is never picked by createAppropriateModulusForSecret(); pass it to PublicInfo to use it.
+     *
+     * @return 2^127 - 1
+     */
+    public static BigInteger getPrimeUsedFor127bitSecretPayload()
+    {
+        return Mersenne127Field.MODULUS;
+    }
+
+    /**
+     * @param primeModulus any modulus, can be null
+     * @return the specialised field for 2^127 - 1 (two longs) and for the 192 and 384 bit
+     *         primes (long[] limbs), null for any other modulus
+     */
+    public static FixedPrimeField getFixedPrimeField(final BigInteger primeModulus)
+    {
+        if (primeModulus == null)
+        {
+            return null;
+        }
+        else if (primeModulus.equals(Prime192.VALUE))
+        {
+            return Prime192.FIELD;
+        }
+        else if (primeModulus.equals(Prime384.VALUE))
+        {
+            return Prime384.FIELD;
+        }
+        else if (primeModulus.equals(Mersenne127Field.MODULUS))
+        {
+            return Prime127.FIELD;
+        }
+        return null;
+    }
+
+    private static BigInteger createPrimeUsedFor4096bigSecretPayload()
     {
         // GENERATE:
         // This big integer was created with probablePrime(BigInteger.valueOf(2L).pow(4100)).nextProbablePrime()
@@ -278,7 +394,7 @@ public class SecretShare
     }
 
 
-    public static BigInteger getPrimeUsedFor384bitSecretPayload()
+    private static BigInteger createPrimeUsedFor384bitSecretPayload()
     {
         // This big integer was created with probablePrime(386-bits)
         // This prime is bigger than 2^384
@@ -295,7 +411,7 @@ public class SecretShare
         return checkAndReturn("384bit prime", p194one, bigintcs);
     }
 
-    public static BigInteger getPrimeUsedFor192bitSecretPayload()
+    private static BigInteger createPrimeUsedFor192bitSecretPayload()
     {
         // This big integer was created with probablePrime(194-bits)
         // This prime is bigger than 2^192
@@ -309,6 +425,27 @@ public class SecretShare
     }
 
 
+    /**
+     * @param value of -Dsscombine, can be null
+     * @return the algorithm it names, LAGRANGE if null
+     */
+    private static CombineAlgorithm readCombineAlgorithm(final String value)
+    {
+        if (value == null)
+        {
+            return CombineAlgorithm.LAGRANGE;
+        }
+        try
+        {
+            return CombineAlgorithm.valueOf(value.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new SecretShareException("Unknown -D" + COMBINE_ALGORITHM_KEY + " value '" + value +
+                                           "', use one of " + Arrays.toString(CombineAlgorithm.values()), e);
+        }
+    }
+
     /**
      * Guard against accidental changes to the strings.
      *
@@ -365,7 +502,7 @@ public class SecretShare
      */
     public SplitSecretOutput split(final BigInteger secret)
     {
-        return split(secret, new SecureRandom());
+        return split(secret, SecureRandomPool.get());
     }
 
     /**
@@ -378,56 +515,91 @@ public class SecretShare
     public SplitSecretOutput split(final BigInteger secret,
                                    final Random random)
     {
-        if (secret == null)
-        {
-            throw new SecretShareException("Secret cannot be null");
-        }
-        if (secret.signum() <= 0)
-        {
-            throw new SecretShareException("Secret cannot be negative");
-        }
-        if (publicInfo.getPrimeModulus() != null)
-        {
-            checkThatModulusIsAppropriate(publicInfo.getPrimeModulus(),
-                                          secret);
-
-        }
-
-        BigInteger[] coeffs = new BigInteger[publicInfo.getK()];
-
-        // create the equation by setting the coefficients:
-        // [a] randomize the coefficients:
-        randomizeCoeffs(coeffs, random, publicInfo.getPrimeModulus(), secret);
-        // [b] set the constant coefficient to the secret:
-        coeffs[0] = secret;
-
-        final PolyEquationImpl equation = new PolyEquationImpl(coeffs);
+        final PolyEquationImpl equation = createRandomEquation(secret, random);
 
         SplitSecretOutput ret = new SplitSecretOutput(this.publicInfo,
                                                       equation);
 
-        for (int x = 1, n = publicInfo.getNforSplit() + 1; x < n; x++)
+        final int n = publicInfo.getNforSplit();
+        final FixedPrimeField fixedField = publicInfo.getFixedPrimeField();
+        final BigInteger[] data;
+        if (fixedField != null)
         {
-            final BigInteger fofx = equation.calculateFofX(BigInteger.valueOf(x));
-            BigInteger data = fofx;
-            if (publicInfo.primeModulus != null)
-            {
-                data = data.mod(publicInfo.primeModulus);
-            }
-            final ShareInfo share = new ShareInfo(x, data, this.publicInfo);
+            data = equation.calculateFofXFromOneTo(n, fixedField);
+        }
+        else
+        {
+            data = equation.calculateFofXFromOneTo(n, publicInfo.getPrimeField());
+        }
+        for (int x = 1; x <= n; x++)
+        {
+            final ShareInfo share = new ShareInfo(x, data[x - 1], this.publicInfo);
             ret.sharesInfo.add(share);
         }
 
         return ret;
     }
 
+    /**
+     * Split the secret into pieces, computed as they are asked for.
+     *
+     * @param secret to split
+     * @return the shares, x = 1 to n
+     */
+    public Iterator<ShareInfo> splitLazily(final BigInteger secret)
+    {
+        return splitLazily(secret, SecureRandomPool.get());
+    }
+
+    /**
+     * Split the secret into pieces, computed as they are asked for:
+     *   the polynomial is created here (so a bad secret fails here), but the shares
+     *   are evaluated LAZY_SHARES at a time as the iterator reaches them.
+     *   Memory use does not grow with n, so the shares can go straight to storage
+     *   or the network for a very large n.
+     *
+     * @param secret to split
+     * @param random to use for random number generation
+     * @return the shares, x = 1 to n; remove() is not supported
+     */
+    public Iterator<ShareInfo> splitLazily(final BigInteger secret,
+                                           final Random random)
+    {
+        final PolyEquationImpl equation = createRandomEquation(secret, random);
+        return new LazyShares(publicInfo, equation, publicInfo.getNforSplit());
+    }
+
     /**
      * Combine the shares generated by the split to recover the secret.
      *
+     * Uses Lagrange interpolation, unless -Dsscombine selects another algorithm.
+     *
      * @param usetheseshares shares to use
      * @return the combine output instance [which in turn contains the recovered secret]
      */
     public CombineOutput combine(final List<ShareInfo> usetheseshares)
+    {
+        return combine(usetheseshares, DEFAULT_COMBINE_ALGORITHM);
+    }
+
+    /**
+     * Combine the shares generated by the split to recover the secret.
+     *
+     * For shares of one split, all algorithms give the same answer.
+     * Without a modulus, they differ on shares that do not lie on a polynomial with
+     *   integer coefficients (e.g. one share was corrupted): LAGRANGE throws,
+     *   LINEAR_EQUATION returns a wrong secret, as the original implementation did
+     *   [its divisions truncate].  With a modulus, every set of shares lies on some
+     *   polynomial, so both return the same (wrong, for corrupted shares) secret.
+     *
+     * @param usetheseshares shares to use
+     * @param algorithm how to compute the secret
+     * @return the combine output instance [which in turn contains the recovered secret]
+     * @throws SecretShareException with LAGRANGE and no modulus, if the shares do not lie
+     *         on a polynomial with integer coefficients
+     */
+    public CombineOutput combine(final List<ShareInfo> usetheseshares,
+                                 final CombineAlgorithm algorithm)
     {
         CombineOutput ret = null;
 
@@ -453,11 +625,216 @@ public class SecretShare
         }
 
 
+        final BigInteger solveSecret;
+        if (algorithm == CombineAlgorithm.LINEAR_EQUATION)
+        {
+            solveSecret = solveWithLinearEquation(xarray, fofxarray);
+        }
+        else if (publicInfo.getFixedPrimeField() != null)
+        {
+            solveSecret = publicInfo.getFixedPrimeField().interpolateAtZero(xarray, fofxarray);
+        }
+        else
+        {
+            solveSecret = LagrangeInterpolation.interpolateAtZero(xarray, fofxarray,
+                                                                  publicInfo.getPrimeField());
+        }
+
+        ret = new CombineOutput(solveSecret);
+
+
+        return ret;
+    }
+
+    /**
+     * Combine shares when some of them may be corrupted.
+     *
+     * The shares are treated as a Reed-Solomon codeword over the prime modulus and decoded
+     *   with Berlekamp-Welch: with n shares, up to (n-k)/2 corrupted ones are corrected and
+     *   reported, in one O(n^3) decode instead of a paranoid scan of every combination.
+     *
+     * @param usetheseshares all the shares available, at least k
+     * @return the recovered secret and the x values of the corrupted shares
+     * @throws SecretShareException if there is no prime modulus,
+     *         or more than (n-k)/2 shares are corrupted
+     */
+    public ErrorCorrectedOutput combineCorrectingErrors(final List<ShareInfo> usetheseshares)
+    {
+        sanityCheckPublicInfos(publicInfo, usetheseshares);
+        if (publicInfo.getPrimeModulus() == null)
+        {
+            throw new SecretShareException("Correcting errors needs a prime modulus");
+        }
+        if (publicInfo.getK() > usetheseshares.size())
+        {
+            throw new SecretShareException("Must have " + publicInfo.getK() +
+                                           " shares to solve.  Only provided " +
+                                           usetheseshares.size());
+        }
+
+        final int size = usetheseshares.size();
+        BigInteger[] xarray = new BigInteger[size];
+        BigInteger[] fofxarray = new BigInteger[size];
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < size; i++)
+        {
+            ShareInfo share = usetheseshares.get(i);
+            if (! seen.add(share.getX()))
+            {
+                throw new SecretShareException("Two shares have x=" + share.getX());
+            }
+            xarray[i] = share.getXasBigInteger();
+            fofxarray[i] = share.getShare();
+        }
+
+        BerlekampWelch.Decoded decoded = BerlekampWelch.decode(xarray, fofxarray,
+                                                               publicInfo.getK(),
+                                                               publicInfo.getPrimeModulus());
+        List<Integer> corrupted = new ArrayList<Integer>();
+        for (int i : decoded.getWrongIndexes())
+        {
+            corrupted.add(usetheseshares.get(i).getX());
+        }
+        return new ErrorCorrectedOutput(decoded.getConstant(), corrupted);
+    }
+
+    /**
+     * Split several secrets with one polynomial ("packed" secret sharing).
+     *
+     * For l secrets the polynomial has degree k+l-2: secret j is f(-j) mod the prime,
+     *   j = 0 to l-1, and f(1) to f(k-1) are random.
+     *   So any k-1 shares still tell nothing about the secrets,
+     *   combinePacked() needs k+l-1 shares, and l secrets cost about one split.
+     *   With l = 1 this is the same sharing as split().
+     *
+     * @param secrets to split, each in [0, modulus)
+     * @param random to use for random number generation
+     * @return split secret output instance
+     * @throws SecretShareException if there is no prime modulus,
+     *         or n is less than k+l-1
+     */
+    public SplitSecretOutput splitPacked(final List<BigInteger> secrets,
+                                         final Random random)
+    {
+        final BigInteger modulus = publicInfo.getPrimeModulus();
+        if (modulus == null)
+        {
+            throw new SecretShareException("Packed sharing needs a prime modulus");
+        }
+        final int count = secrets.size();
+        if (count < 1)
+        {
+            throw new SecretShareException("Need at least one secret");
+        }
+        final int k = publicInfo.getK();
+        final int n = publicInfo.getNforSplit();
+        final int points = k + count - 1;
+        if (n < points)
+        {
+            throw new SecretShareException("n must be at least k+" + (count - 1) + "=" + points +
+                                           " to combine " + count + " packed secrets, was " + n);
+        }
+        checkPackedPointsAreDistinct(n, count, modulus);
+
+        BigInteger[] xarray = new BigInteger[points];
+        BigInteger[] fofxarray = new BigInteger[points];
+        for (int j = 0; j < count; j++)
+        {
+            final BigInteger secret = secrets.get(j);
+            if ((secret == null) || (secret.signum() < 0))
+            {
+                throw new SecretShareException("Secret " + j + " cannot be null or negative");
+            }
+            checkThatModulusIsAppropriate(modulus, secret);
+            xarray[j] = packedSecretPoint(j, modulus);
+            fofxarray[j] = secret;
+        }
+        final BigInteger[] randomValues = SecureRandomPool.randomBelow(modulus, k - 1, random);
+        for (int x = 1; x < k; x++)
+        {
+            xarray[count + x - 1] = BigInteger.valueOf(x);
+            fofxarray[count + x - 1] = randomValues[x - 1];
+        }
+
+        final BigInteger[] coeffs = VandermondeSolver.solveCoefficients(xarray, fofxarray,
+                                                                        publicInfo.getPrimeField());
+        final PolyEquationImpl equation = new PolyEquationImpl(coeffs);
+        SplitSecretOutput ret = new SplitSecretOutput(this.publicInfo, equation);
+        for (int x = 1; x <= n; x++)
+        {
+            final BigInteger data;
+            if (x < k)
+            {
+                data = fofxarray[count + x - 1];
+            }
+            else
+            {
+                data = equation.calculateFofX(BigInteger.valueOf(x), publicInfo.getPrimeField());
+            }
+            ret.sharesInfo.add(new ShareInfo(x, data, this.publicInfo));
+        }
+        return ret;
+    }
+
+    /**
+     * Combine the shares generated by splitPacked() to recover all the secrets.
+     *
+     * @param usetheseshares shares to use, at least k+l-1; only the first k+l-1 are used
+     * @param count number of secrets, l
+     * @return the secrets, in the order they were given to splitPacked()
+     */
+    public PackedCombineOutput combinePacked(final List<ShareInfo> usetheseshares,
+                                             final int count)
+    {
+        sanityCheckPublicInfos(publicInfo, usetheseshares);
+        final BigInteger modulus = publicInfo.getPrimeModulus();
+        if (modulus == null)
+        {
+            throw new SecretShareException("Packed sharing needs a prime modulus");
+        }
+        if (count < 1)
+        {
+            throw new SecretShareException("Need at least one secret");
+        }
+        final int points = publicInfo.getK() + count - 1;
+        if (points > usetheseshares.size())
+        {
+            throw new SecretShareException("Must have " + points +
+                                           " shares to solve " + count + " packed secrets.  Only provided " +
+                                           usetheseshares.size());
+        }
+
+        checkForDuplicatesOrThrow(usetheseshares);
+
+        BigInteger[] xarray = new BigInteger[points];
+        BigInteger[] fofxarray = new BigInteger[points];
+        int largestX = 0;
+        for (int i = 0; i < points; i++)
+        {
+            xarray[i] = usetheseshares.get(i).getXasBigInteger();
+            fofxarray[i] = usetheseshares.get(i).getShare();
+            largestX = Math.max(largestX, usetheseshares.get(i).getX());
+        }
+        checkPackedPointsAreDistinct(largestX, count, modulus);
+
+        final PolyEquationImpl equation =
+            VandermondeSolver.solvePolynomial(xarray, fofxarray, publicInfo.getPrimeField());
+        List<BigInteger> secrets = new ArrayList<BigInteger>(count);
+        for (int j = 0; j < count; j++)
+        {
+            secrets.add(equation.calculateFofX(packedSecretPoint(j, modulus), publicInfo.getPrimeField()));
+        }
+        return new PackedCombineOutput(secrets);
+    }
+
+    private BigInteger solveWithLinearEquation(final BigInteger[] xarray,
+                                               final BigInteger[] fofxarray)
+    {
         EasyLinearEquation ele =
             EasyLinearEquation.createForPolynomial(xarray, fofxarray);
         if (publicInfo.getPrimeModulus() != null)
         {
-            ele = ele.createWithPrimeModulus(publicInfo.getPrimeModulus());
+            ele = ele.createWithPrimeField(publicInfo.getPrimeField());
         }
         EasyLinearEquation.EasySolve solve = ele.solve();
 
@@ -466,13 +843,33 @@ public class SecretShare
         {
             solveSecret = solveSecret.mod(publicInfo.getPrimeModulus());
         }
+        return solveSecret;
+    }
 
-        ret = new CombineOutput(solveSecret);
-
+    /**
+     * @return where packed secret j lives: -j mod the prime
+     */
+    private static BigInteger packedSecretPoint(final int j,
+                                                final BigInteger modulus)
+    {
+        return BigInteger.valueOf(-j).mod(modulus);
+    }
 
-        return ret;
+    /**
+     * Share x values 1..largestX must not collide with the secret points 0, -1, .., -(count-1).
+     */
+    private static void checkPackedPointsAreDistinct(final int largestX,
+                                                     final int count,
+                                                     final BigInteger modulus)
+    {
+        if (BigInteger.valueOf(largestX).add(BigInteger.valueOf(count)).compareTo(modulus) > 0)
+        {
+            throw new SecretShareException("Modulus " + modulus + " is too small for x up to " +
+                                           largestX + " and " + count + " packed secrets");
+        }
     }
 
+
     /**
      * @param outer - usually the one from SecretShare.publicInfo
      * @param list  - share info list that also have publicInfos
@@ -617,11 +1014,51 @@ public class SecretShare
     // private methods
     // ==================================================
 
+    /**
+     * @return f(x) with f(0) = secret and random coefficients, after checking the secret
+     */
+    private PolyEquationImpl createRandomEquation(final BigInteger secret,
+                                                  final Random random)
+    {
+        if (secret == null)
+        {
+            throw new SecretShareException("Secret cannot be null");
+        }
+        if (secret.signum() <= 0)
+        {
+            throw new SecretShareException("Secret cannot be negative");
+        }
+        if (publicInfo.getPrimeModulus() != null)
+        {
+            checkThatModulusIsAppropriate(publicInfo.getPrimeModulus(),
+                                          secret);
+
+        }
+
+        BigInteger[] coeffs = new BigInteger[publicInfo.getK()];
+
+        // create the equation by setting the coefficients:
+        // [a] randomize the coefficients:
+        randomizeCoeffs(coeffs, random, publicInfo.getPrimeModulus(), secret);
+        // [b] set the constant coefficient to the secret:
+        coeffs[0] = secret;
+
+        return new PolyEquationImpl(coeffs);
+    }
+
     private void randomizeCoeffs(final BigInteger[] coeffs,
                                  final Random random,
                                  final BigInteger modulus,
                                  final BigInteger secret)
     {
+        if (modulus != null)
+        {
+            // uniform below the modulus: every polynomial is equally likely, whatever the secret
+            final BigInteger[] drawn = SecureRandomPool.randomBelow(modulus, coeffs.length - 1, random);
+            System.arraycopy(drawn, 0, coeffs, 1, drawn.length);
+            return;
+        }
+
         for (int i = 1, n = coeffs.length; i < n; i++)
         {
             BigInteger big = null;
@@ -637,12 +1074,6 @@ public class SecretShare
 
             coeffs[i] = big;
 
-            // Book says "all coefficients are smaller than the modulus"
-            if (modulus != null)
-            {
-                coeffs[i] = coeffs[i].mod(modulus);
-            }
-
             // FIX? TODO: FIX? experiment says "all coefficients are smaller than the secret"
             coeffs[i] = coeffs[i].mod(secret);
         }
@@ -663,6 +1094,8 @@ public class SecretShare
         // the required public info: "K" and the modulus
         private final int k;                         // determines the order of the polynomial
         private final BigInteger primeModulus;       // can be null
+        private final ModularField primeField;       // null when primeModulus is null
+        private final FixedPrimeField fixedPrimeField; // null unless primeModulus has one
 
         // required for split: "N" - how many shares were generated?
         // optional for combine (can be null)
@@ -682,6 +1115,8 @@ public class SecretShare
             this.n = inN;
             this.k = inK;
             this.primeModulus = inPrimeModulus;
+            this.primeField = (inPrimeModulus != null) ? new ModularField(inPrimeModulus) : null;
+            this.fixedPrimeField = SecretShare.getFixedPrimeField(inPrimeModulus);
             this.description = inDescription;
 
             UUID uuidobj = UUID.randomUUID();
@@ -743,6 +1178,21 @@ public class SecretShare
         {
             return primeModulus;
         }
+        /**
+         * @return GF(primeModulus), created once; null if there is no modulus
+         */
+        public final ModularField getPrimeField()
+        {
+            return primeField;
+        }
+        /**
+         * @return specialised arithmetic for primeModulus, see SecretShare.getFixedPrimeField();
+         *         null if there is none
+         */
+        public final FixedPrimeField getFixedPrimeField()
+        {
+            return fixedPrimeField;
+        }
         public final String getDescription()
         {
             return description;
@@ -895,6 +1345,69 @@ public class SecretShare
         }
     }
 
+    /**
+     * The shares of splitLazily(): evaluated LAZY_SHARES at a time, as they are reached.
+     */
+    private static class LazyShares
+        implements Iterator<ShareInfo>
+    {
+        private final PublicInfo publicInfo;
+        private final PolyEquationImpl equation;
+        private final int n;
+
+        // shares [batchFromX, batchFromX + batch.length) are in batch
+        private BigInteger[] batch = new BigInteger[0];
+        private int batchFromX = 1;
+        private int nextX = 1;
+
+        public LazyShares(final PublicInfo inPublicInfo,
+                          final PolyEquationImpl inEquation,
+                          final int inN)
+        {
+            publicInfo = inPublicInfo;
+            equation = inEquation;
+            n = inN;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return nextX <= n;
+        }
+
+        @Override
+        public ShareInfo next()
+        {
+            if (! hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            if (nextX >= batchFromX + batch.length)
+            {
+                batchFromX = nextX;
+                final int toX = Math.min(n + 1, nextX + LAZY_SHARES);
+                final FixedPrimeField fixedField = publicInfo.getFixedPrimeField();
+                if (fixedField != null)
+                {
+                    batch = equation.calculateFofXForRange(batchFromX, toX, fixedField);
+                }
+                else
+                {
+                    batch = equation.calculateFofXForRange(batchFromX, toX, publicInfo.getPrimeField());
+                }
+            }
+            final ShareInfo ret = new ShareInfo(nextX, batch[nextX - batchFromX], publicInfo);
+            nextX++;
+            return ret;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("Shares cannot be removed");
+        }
+    }
+
     public ParanoidOutput combineParanoid(List<ShareInfo> shares)
     {
         return combineParanoid(shares, null);
@@ -903,6 +1416,50 @@ public class SecretShare
     public ParanoidOutput combineParanoid(List<ShareInfo> shares,
                                           Integer maximumCombinationsToTest)
     {
+        return combineParanoid(shares, maximumCombinationsToTest, null);
+    }
+
+    /**
+     * Paranoid combine on all available processors.
+     *
+     * @param shares to combine
+     * @param maximumCombinationsToTest null means "all"
+     * @return output, as combineParanoid()
+     */
+    public ParanoidOutput combineParanoidParallel(List<ShareInfo> shares,
+                                                  Integer maximumCombinationsToTest)
+    {
+        ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            return combineParanoid(shares, maximumCombinationsToTest, pool);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Paranoid combine, with the combinations verified on a pool.
+     *
+     * The combinations are split by rank into balanced ranges (see CombinationRange)
+     *   that are verified in parallel; the progress samples are the same as the
+     *   sequential version records, found by unranking instead of walking.
+     * The first combination that disagrees (or fails) stops all the others.
+     *
+     * @param shares to combine
+     * @param maximumCombinationsToTest null means "all"
+     * @param pool to verify on, or null to verify on the calling thread
+     * @return output, as combineParanoid()
+     * @throws SecretShareException if any combination recovers a different secret
+     */
+    public ParanoidOutput combineParanoid(List<ShareInfo> shares,
+                                          Integer maximumCombinationsToTest,
+                                          ForkJoinPool pool)
+    {
+        sanityCheckParanoidShares(shares);
+
         ParanoidOutput ret = new ParanoidOutput();
         ret.maximumCombinationsAllowedToTest = maximumCombinationsToTest;
 
@@ -913,23 +1470,15 @@ public class SecretShare
                                                 publicInfo.getK());
         ret.totalNumberOfCombinations = combo.getTotalNumberOfCombinations();
 
-        final int percentEvery = 30;  // or 10 for every 10%
-        int outputEvery = 100;
-        if (maximumCombinationsToTest != null)
-        {
-            if (BigInteger.valueOf(maximumCombinationsToTest)
-                    .compareTo(combo.getTotalNumberOfCombinations()) > 0)
-            {
-                maximumCombinationsToTest = combo.getTotalNumberOfCombinations().intValue();
-                outputEvery = (maximumCombinationsToTest * percentEvery ) / 100 + 1;
-            }
-        }
-        else
+        final int outputEvery = computeParanoidOutputEvery(maximumCombinationsToTest,
+                                                           combo.getTotalNumberOfCombinations());
+
+
+        if (pool != null)
         {
-            outputEvery = (combo.getTotalNumberOfCombinations().intValue() * percentEvery ) / 100  + 1;
+            return combineParanoidOnPool(ret, combo, maximumCombinationsToTest, outputEvery, pool);
         }
 
-
         int count = -1;
         for (List<SecretShare.ShareInfo> usetheseshares : combo)
         {
@@ -987,6 +1536,53 @@ public class SecretShare
         }
     }
 
+    /**
+     * Holds the output of the combineCorrectingErrors() operation:
+     *   the secret, and which shares were found to be corrupted.
+     */
+    public static class ErrorCorrectedOutput
+        extends CombineOutput
+    {
+        private final List<Integer> corruptedX;
+
+        public ErrorCorrectedOutput(final BigInteger inSecret,
+                                    final List<Integer> inCorruptedX)
+        {
+            super(inSecret);
+            corruptedX = Collections.unmodifiableList(new ArrayList<Integer>(inCorruptedX));
+        }
+
+        /**
+         * @return the x values of the shares that did not agree with the recovered polynomial,
+         *         empty if none
+         */
+        public final List<Integer> getCorruptedX()
+        {
+            return corruptedX;
+        }
+    }
+
+
+    /**
+     * Holds the output of the combinePacked() operation: all the secrets.
+     *   getSecret() is the first one.
+     */
+    public static class PackedCombineOutput
+        extends CombineOutput
+    {
+        private final List<BigInteger> secrets;
+
+        public PackedCombineOutput(final List<BigInteger> inSecrets)
+        {
+            super(inSecrets.get(0));
+            secrets = Collections.unmodifiableList(new ArrayList<BigInteger>(inSecrets));
+        }
+
+        public final List<BigInteger> getSecrets()
+        {
+            return secrets;
+        }
+    }
 
     /**
      * Holds the output of the combineParanoid() operation.
@@ -1056,6 +1652,259 @@ public class SecretShare
     // non public methods
     // ==================================================
 
+    /**
+     * Paranoid combine that visits the combinations in revolving-door order
+     *   (see RevolvingDoorCombinations), where each combination swaps one share for another.
+     * The Lagrange weights are updated for the swap instead of solving again,
+     *   so every combination after the first costs O(k) multiplications mod p.
+     *
+     * Needs a prime modulus; without one, this is combineParanoid().
+     * The progress samples are taken in revolving-door order, so they are not
+     *   the same combinations that combineParanoid() records.
+     *
+     * @param shares to combine
+     * @param maximumCombinationsToTest null means "all"
+     * @return output, as combineParanoid()
+     * @throws SecretShareException if any combination recovers a different secret
+     */
+    public ParanoidOutput combineParanoidIncremental(List<ShareInfo> shares,
+                                                     Integer maximumCombinationsToTest)
+    {
+        final BigInteger modulus = publicInfo.getPrimeModulus();
+        if (modulus == null)
+        {
+            return combineParanoid(shares, maximumCombinationsToTest);
+        }
+        sanityCheckParanoidShares(shares);
+
+        final int n = shares.size();
+        final int k = publicInfo.getK();
+        final RevolvingDoorCombinations door = new RevolvingDoorCombinations(n, k);
+        final long total = CombinationCursor.count(n, k);
+
+        ParanoidOutput ret = new ParanoidOutput();
+        ret.maximumCombinationsAllowedToTest = maximumCombinationsToTest;
+        ret.totalNumberOfCombinations = BigInteger.valueOf(total);
+        final int outputEvery = computeParanoidOutputEvery(maximumCombinationsToTest,
+                                                           ret.totalNumberOfCombinations);
+        final long end = computeParanoidEnd(maximumCombinationsToTest, total);
+
+        BigInteger[] xarray = new BigInteger[n];
+        BigInteger[] fofxarray = new BigInteger[n];
+        for (int i = 0; i < n; i++)
+        {
+            xarray[i] = shares.get(i).getXasBigInteger();
+            fofxarray[i] = shares.get(i).getShare();
+        }
+        int[] indexes = new int[k];
+        for (int i = 0; i < k; i++)
+        {
+            indexes[i] = door.get(i);
+        }
+        final LagrangeInterpolation.Subset subset =
+            new LagrangeInterpolation.Subset(xarray, fofxarray, publicInfo.getPrimeField(), indexes);
+
+        // the first combination goes through combine(), with all of its checks
+        final BigInteger answer = this.combine(select(shares, indexes)).getSecret();
+
+        for (long count = 0; count < end; count++)
+        {
+            if (count > 0)
+            {
+                door.next();
+                subset.swap(door.getLeaving(), door.getEntering());
+            }
+            if ((count % outputEvery) == 0)
+            {
+                for (int i = 0; i < k; i++)
+                {
+                    indexes[i] = door.get(i);
+                }
+                ret.recordCombination(BigInteger.valueOf(count + 1),
+                                      Arrays.toString(indexes),
+                                      dumpshares(select(shares, indexes)));
+            }
+            if (! answer.equals(subset.interpolateAtZero()))
+            {
+                throw new SecretShareException("Paranoid combine failed, on combination at count=" + count);
+            }
+        }
+        ret.agreedAnswerEveryTime = answer;
+
+        return ret;
+    }
+
+    /**
+     * The checks of combine() that do not depend on which k shares are combined,
+     *   made once over all the shares, so every paranoid combine fails the same way
+     *   however its combinations are visited.
+     */
+    private void sanityCheckParanoidShares(List<ShareInfo> shares)
+    {
+        sanityCheckPublicInfos(publicInfo, shares);
+        checkForDuplicatesOrThrow(shares);
+    }
+
+    private static int computeParanoidOutputEvery(final Integer maximumCombinationsToTest,
+                                                  final BigInteger totalNumberOfCombinations)
+    {
+        final int percentEvery = 30;  // or 10 for every 10%
+        int outputEvery = 100;
+        if (maximumCombinationsToTest != null)
+        {
+            if (BigInteger.valueOf(maximumCombinationsToTest)
+                    .compareTo(totalNumberOfCombinations) > 0)
+            {
+                outputEvery = (totalNumberOfCombinations.intValue() * percentEvery ) / 100 + 1;
+            }
+        }
+        else
+        {
+            outputEvery = (totalNumberOfCombinations.intValue() * percentEvery ) / 100  + 1;
+        }
+        return outputEvery;
+    }
+
+    /**
+     * @return how many combinations a paranoid combine tests
+     */
+    private static long computeParanoidEnd(final Integer maximumCombinationsToTest,
+                                           final long totalNumberOfCombinations)
+    {
+        if (maximumCombinationsToTest != null)
+        {
+            // the sequential loop tests counts 0 to maximumCombinationsToTest
+            return Math.min(totalNumberOfCombinations, maximumCombinationsToTest.longValue() + 1);
+        }
+        return totalNumberOfCombinations;
+    }
+
+    private ParanoidOutput combineParanoidOnPool(final ParanoidOutput ret,
+                                                 final CombinationGenerator<ShareInfo> combo,
+                                                 final Integer maximumCombinationsToTest,
+                                                 final int outputEvery,
+                                                 final ForkJoinPool pool)
+    {
+        final List<ShareInfo> shares = combo.getList();
+        final CombinationCursor cursor = combo.cursor();
+        final long end = computeParanoidEnd(maximumCombinationsToTest,
+                                            cursor.getTotalNumberOfCombinations());
+
+        for (long rank = 0; rank < end; rank += outputEvery)
+        {
+            cursor.moveTo(rank);
+            ret.recordCombination(BigInteger.valueOf(rank + 1),
+                                  Arrays.toString(cursor.getIndexes()),
+                                  dumpshares(select(shares, cursor.getIndexes())));
+        }
+
+        cursor.moveTo(0);
+        final BigInteger answer = this.combine(select(shares, cursor.getIndexes())).getSecret();
+
+        final AtomicReference<SecretShareException> failure =
+            new AtomicReference<SecretShareException>();
+        pool.invoke(new ParanoidRange(shares,
+                                      new CombinationRange(shares.size(), publicInfo.getK(), 1, end),
+                                      answer,
+                                      failure));
+        if (failure.get() != null)
+        {
+            throw failure.get();
+        }
+        ret.agreedAnswerEveryTime = answer;
+
+        return ret;
+    }
+
+    private static List<ShareInfo> select(final List<ShareInfo> shares,
+                                          final int[] indexes)
+    {
+        List<ShareInfo> ret = new ArrayList<ShareInfo>(indexes.length);
+        for (int index : indexes)
+        {
+            ret.add(shares.get(index));
+        }
+        return ret;
+    }
+
+    /**
+     * Verifies a range of combinations for a parallel combineParanoid():
+     *   splits itself in halves until the ranges are small, then combines each one.
+     * The first failure is published in 'failure', and every task stops when it sees it.
+     */
+    private class ParanoidRange
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        // combinations a task verifies itself instead of splitting
+        private static final long RANGE_SIZE = 256;
+
+        private final List<ShareInfo> shares;
+        private final CombinationRange range;
+        private final BigInteger expected;
+        private final AtomicReference<SecretShareException> failure;
+
+        public ParanoidRange(final List<ShareInfo> inShares,
+                             final CombinationRange inRange,
+                             final BigInteger inExpected,
+                             final AtomicReference<SecretShareException> inFailure)
+        {
+            shares = inShares;
+            range = inRange;
+            expected = inExpected;
+            failure = inFailure;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (failure.get() != null)
+            {
+                return;
+            }
+            if (range.estimateSize() > RANGE_SIZE)
+            {
+                CombinationRange firstHalf = range.trySplit();
+                invokeAll(new ParanoidRange(shares, firstHalf, expected, failure),
+                          new ParanoidRange(shares, range, expected, failure));
+                return;
+            }
+
+            // one list, refilled for every combination
+            final List<ShareInfo> combination = new ArrayList<ShareInfo>(Collections.nCopies(publicInfo.getK(),
+                                                                                             (ShareInfo) null));
+            CombinationRange.Action verify = new CombinationRange.Action()
+            {
+                @Override
+                public void accept(long rank, int[] indexes)
+                {
+                    for (int i = 0; i < indexes.length; i++)
+                    {
+                        combination.set(i, shares.get(indexes[i]));
+                    }
+                    try
+                    {
+                        if (! expected.equals(combine(combination).getSecret()))
+                        {
+                            failure.compareAndSet(null, new SecretShareException(
+                                "Paranoid combine failed, on combination at count=" + rank));
+                        }
+                    }
+                    catch (RuntimeException e)
+                    {
+                        failure.compareAndSet(null, new SecretShareException(
+                            "Paranoid combine failed, on combination at count=" + rank, e));
+                    }
+                }
+            };
+            while ((failure.get() == null) && range.tryAdvance(verify))
+            {
+                // verify did the work
+            }
+        }
+    }
+
     private String dumpshares(List<ShareInfo> usetheseshares)
     {
         String ret = "";
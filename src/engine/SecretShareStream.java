@@ -0,0 +1,497 @@
+package engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import engine.SecretShare.PublicInfo;
+import engine.SecretShare.ShareInfo;
+import exceptions.SecretShareException;
+
+/**
+ * Split and combine payloads of any size as streams.
+ *
+ * The payload is read in blocks small enough for one of the fixed primes of SecretShare,
+ *   every block is split on its own, and share x of every block is written to share stream x.
+ * Combine reads the same block of k share streams and writes the recovered block.
+ *
+ * Each block is split as the number  0x01 || block bytes,
+ *   so that it is never zero, leading zero bytes survive, and the last block may be short.
+ *
+ * Share stream:
+ *   MAGIC, VERSION, BlockPrime ordinal       bytes
+ *   n, k, x                                  ints
+ *   one share per block, each exactly BlockPrime.getShareBytes() bytes, big-endian
+ *
+ * Blocks are handled BATCH_BLOCKS at a time, split (or combined) in parallel on a ForkJoinPool,
+ *   so memory use depends on n and the batch size, not on the payload size.
+ */
+public class SecretShareStream
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    public static final byte MAGIC = (byte) 0xB6;
+    public static final byte VERSION = 1;
+
+    private static final int BLOCK_MARKER = 0x01;
+
+    // blocks per batch; a batch is read, processed in parallel, then written
+    private static final int BATCH_BLOCKS = 1024;
+
+    // blocks per ForkJoin task that is not split any further
+    private static final int TASK_BLOCKS = 16;
+
+    /**
+     * The prime each block is split with, and so the block size.
+     *
+     * Payload bits per block stay below the same cutoffs as createAppropriateModulusForSecret().
+     */
+    public enum BlockPrime
+    {
+        /** 22 payload bytes per block, 25 bytes per share block */
+        P192(22)
+        {
+            @Override
+            BigInteger createPrime()
+            {
+                return SecretShare.getPrimeUsedFor192bitSecretPayload();
+            }
+        },
+        /** 46 payload bytes per block, 49 bytes per share block */
+        P384(46)
+        {
+            @Override
+            BigInteger createPrime()
+            {
+                return SecretShare.getPrimeUsedFor384bitSecretPayload();
+            }
+        };
+
+        private final int payloadBytes;
+
+        private BlockPrime(final int inPayloadBytes)
+        {
+            payloadBytes = inPayloadBytes;
+        }
+
+        abstract BigInteger createPrime();
+
+        /**
+         * @return bytes of payload in one block
+         */
+        public int getPayloadBytes()
+        {
+            return payloadBytes;
+        }
+
+        /**
+         * @return bytes of one share of one block
+         */
+        public int getShareBytes()
+        {
+            return (createPrime().bitLength() + 7) / 8;
+        }
+    }
+
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final BlockPrime blockPrime;
+    private final BigInteger prime;
+    private final int shareBytes;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    public SecretShareStream(final BlockPrime inBlockPrime)
+    {
+        if (inBlockPrime == null)
+        {
+            throw new SecretShareException("blockPrime cannot be null");
+        }
+        blockPrime = inBlockPrime;
+        prime = inBlockPrime.createPrime();
+        shareBytes = (prime.bitLength() + 7) / 8;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * Split the payload into n share streams, n = shareOutputs.size().
+     *   The streams are flushed, not closed.
+     *
+     * @param payload to split, read to the end
+     * @param shareOutputs where share x = 1 to n is written
+     * @param k number of share streams needed to combine
+     * @throws IOException if reading or writing fails
+     */
+    public void split(final InputStream payload,
+                      final List<? extends OutputStream> shareOutputs,
+                      final int k)
+        throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            split(payload, shareOutputs, k, SecureRandomPool.get(), pool);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Split the payload into n share streams, n = shareOutputs.size().
+     *   The streams are flushed, not closed.
+     *
+     * @param payload to split, read to the end
+     * @param shareOutputs where share x = 1 to n is written
+     * @param k number of share streams needed to combine
+     * @param random for the polynomial coefficients; used from several threads
+     * @param pool to split the blocks of a batch on
+     * @throws IOException if reading or writing fails
+     */
+    public void split(final InputStream payload,
+                      final List<? extends OutputStream> shareOutputs,
+                      final int k,
+                      final Random random,
+                      final ForkJoinPool pool)
+        throws IOException
+    {
+        final int n = shareOutputs.size();
+        final SecretShare secretShare = new SecretShare(new PublicInfo(n, k, prime, null));
+
+        for (int i = 0; i < n; i++)
+        {
+            writeHeader(shareOutputs.get(i), n, k, i + 1);
+        }
+
+        final int payloadBytes = blockPrime.getPayloadBytes();
+        final byte[] input = new byte[BATCH_BLOCKS * payloadBytes];
+        final byte[][] output = new byte[n][BATCH_BLOCKS * shareBytes];
+        int length;
+        while ((length = readAsMuchAsPossible(payload, input)) > 0)
+        {
+            final int inputLength = length;
+            final int blocks = (inputLength + payloadBytes - 1) / payloadBytes;
+            pool.invoke(new Blocks(0, blocks, new BlockWork()
+            {
+                @Override
+                public void process(final int block)
+                {
+                    final int start = block * payloadBytes;
+                    final int size = Math.min(payloadBytes, inputLength - start);
+                    byte[] marked = new byte[size + 1];
+                    marked[0] = BLOCK_MARKER;
+                    System.arraycopy(input, start, marked, 1, size);
+
+                    List<ShareInfo> shares =
+                        secretShare.split(new BigInteger(1, marked), random).getShareInfos();
+                    for (int i = 0; i < n; i++)
+                    {
+                        putFixedWidth(shares.get(i).getShare(), output[i], block * shareBytes);
+                    }
+                }
+            }));
+            for (int i = 0; i < n; i++)
+            {
+                shareOutputs.get(i).write(output[i], 0, blocks * shareBytes);
+            }
+        }
+
+        for (OutputStream out : shareOutputs)
+        {
+            out.flush();
+        }
+    }
+
+    /**
+     * Combine share streams back into the payload.  The output stream is flushed, not closed.
+     *
+     * @param shareInputs at least k share streams written by split(), positioned at the start
+     * @param payload where the payload is written
+     * @throws IOException if reading or writing fails
+     * @throws SecretShareException if the share streams do not belong together or are corrupt
+     */
+    public void combine(final List<? extends InputStream> shareInputs,
+                        final OutputStream payload)
+        throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            combine(shareInputs, payload, pool);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Combine share streams back into the payload.  The output stream is flushed, not closed.
+     *
+     * @param shareInputs at least k share streams written by split(), positioned at the start;
+     *        only the first k are read
+     * @param payload where the payload is written
+     * @param pool to combine the blocks of a batch on
+     * @throws IOException if reading or writing fails
+     * @throws SecretShareException if the share streams do not belong together or are corrupt
+     */
+    public void combine(final List<? extends InputStream> shareInputs,
+                        final OutputStream payload,
+                        final ForkJoinPool pool)
+        throws IOException
+    {
+        if (shareInputs.isEmpty())
+        {
+            throw new SecretShareException("No share streams to combine");
+        }
+        final int[] first = readHeader(shareInputs.get(0));
+        final int n = first[0];
+        final int k = first[1];
+        if (shareInputs.size() < k)
+        {
+            throw new SecretShareException("Must have " + k + " share streams to combine.  Only provided " +
+                                           shareInputs.size());
+        }
+        final int[] xs = new int[k];
+        xs[0] = first[2];
+        Set<Integer> seen = new HashSet<Integer>();
+        seen.add(xs[0]);
+        for (int i = 1; i < k; i++)
+        {
+            final int[] header = readHeader(shareInputs.get(i));
+            if ((header[0] != n) || (header[1] != k))
+            {
+                throw new SecretShareException("Share streams are from different splits: n,k=" +
+                                               n + "," + k + " and " + header[0] + "," + header[1]);
+            }
+            xs[i] = header[2];
+            if (! seen.add(xs[i]))
+            {
+                throw new SecretShareException("Duplicate share stream x=" + xs[i]);
+            }
+        }
+
+        final PublicInfo publicInfo = new PublicInfo(n, k, prime, null);
+        final SecretShare secretShare = new SecretShare(publicInfo);
+
+        final int payloadBytes = blockPrime.getPayloadBytes();
+        final byte[][] input = new byte[k][BATCH_BLOCKS * shareBytes];
+        final byte[][] blockOutput = new byte[BATCH_BLOCKS][];
+        while (true)
+        {
+            int length = readAsMuchAsPossible(shareInputs.get(0), input[0]);
+            for (int i = 1; i < k; i++)
+            {
+                if (readAsMuchAsPossible(shareInputs.get(i), input[i]) != length)
+                {
+                    throw new SecretShareException("Share streams have different lengths");
+                }
+            }
+            if (length == 0)
+            {
+                break;
+            }
+            if ((length % shareBytes) != 0)
+            {
+                throw new SecretShareException("Share stream is truncated");
+            }
+
+            final int blocks = length / shareBytes;
+            pool.invoke(new Blocks(0, blocks, new BlockWork()
+            {
+                @Override
+                public void process(final int block)
+                {
+                    List<ShareInfo> shares = new ArrayList<ShareInfo>(k);
+                    for (int i = 0; i < k; i++)
+                    {
+                        shares.add(new ShareInfo(xs[i],
+                                                 getFixedWidth(input[i], block * shareBytes),
+                                                 publicInfo));
+                    }
+                    byte[] marked = secretShare.combine(shares).getSecret().toByteArray();
+                    if ((marked[0] != BLOCK_MARKER) || (marked.length > payloadBytes + 1))
+                    {
+                        throw new SecretShareException("Share streams are corrupt at block " + block);
+                    }
+                    blockOutput[block] = marked;
+                }
+            }));
+            for (int block = 0; block < blocks; block++)
+            {
+                payload.write(blockOutput[block], 1, blockOutput[block].length - 1);
+                blockOutput[block] = null;
+            }
+        }
+        payload.flush();
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private void writeHeader(final OutputStream out,
+                             final int n,
+                             final int k,
+                             final int x)
+        throws IOException
+    {
+        // not closed: that would close "out"
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(blockPrime.ordinal());
+        data.writeInt(n);
+        data.writeInt(k);
+        data.writeInt(x);
+        data.flush();
+    }
+
+    /**
+     * @return n, k, x
+     * @throws SecretShareException unless 1 <= k <= n and 1 <= x <= n
+     */
+    private int[] readHeader(final InputStream in)
+        throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        try
+        {
+            if ((data.readByte() != MAGIC) || (data.readByte() != VERSION))
+            {
+                throw new SecretShareException("Not a share stream");
+            }
+            final int ordinal = data.readByte();
+            if (ordinal != blockPrime.ordinal())
+            {
+                throw new SecretShareException("Share stream uses block prime " + ordinal +
+                                               ", expected " + blockPrime);
+            }
+            final int n = data.readInt();
+            final int k = data.readInt();
+            final int x = data.readInt();
+            if ((k < 1) || (k > n) || (x < 1) || (x > n))
+            {
+                throw new SecretShareException("Share stream header is corrupt: n,k,x=" +
+                                               n + "," + k + "," + x);
+            }
+            return new int[] {n, k, x};
+        }
+        catch (EOFException e)
+        {
+            throw new SecretShareException("Share stream is truncated", e);
+        }
+    }
+
+    /**
+     * @return bytes read into buffer; less than buffer.length only at end of stream
+     */
+    private static int readAsMuchAsPossible(final InputStream in,
+                                            final byte[] buffer)
+        throws IOException
+    {
+        int ret = 0;
+        while (ret < buffer.length)
+        {
+            final int read = in.read(buffer, ret, buffer.length - ret);
+            if (read < 0)
+            {
+                break;
+            }
+            ret += read;
+        }
+        return ret;
+    }
+
+    private void putFixedWidth(final BigInteger value,
+                               final byte[] buffer,
+                               final int offset)
+    {
+        final byte[] magnitude = value.toByteArray();
+        // toByteArray() may have a leading sign byte of zero
+        final int skip = (magnitude[0] == 0) ? 1 : 0;
+        final int size = magnitude.length - skip;
+        for (int i = offset, end = offset + shareBytes - size; i < end; i++)
+        {
+            buffer[i] = 0;
+        }
+        System.arraycopy(magnitude, skip, buffer, offset + shareBytes - size, size);
+    }
+
+    private BigInteger getFixedWidth(final byte[] buffer,
+                                     final int offset)
+    {
+        byte[] magnitude = new byte[shareBytes];
+        System.arraycopy(buffer, offset, magnitude, 0, shareBytes);
+        return new BigInteger(1, magnitude);
+    }
+
+    /**
+     * Work on one block of a batch.
+     */
+    private interface BlockWork
+    {
+        void process(int block);
+    }
+
+    /**
+     * Blocks [from, to) of a batch, halved until small enough to do in one task.
+     */
+    private static class Blocks
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final BlockWork work;
+
+        public Blocks(final int inFrom,
+                      final int inTo,
+                      final BlockWork inWork)
+        {
+            from = inFrom;
+            to = inTo;
+            work = inWork;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= TASK_BLOCKS)
+            {
+                for (int block = from; block < to; block++)
+                {
+                    work.process(block);
+                }
+            }
+            else
+            {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Blocks(from, middle, work),
+                          new Blocks(middle, to, work));
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package engine;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import exceptions.SecretShareException;
+
+/**
+ * Secure randomness for splitting, without a new SecureRandom per split, and without
+ *   every thread queueing on one shared SecureRandom (its methods are synchronized).
+ *
+ * Each thread gets its own SHA1PRNG generator [Java 7 has no "DRBG"], seeded once from one
+ *   shared SecureRandom, the first time the thread asks.  get() is a Random that forwards
+ *   to the calling thread's generator, so it can be shared by any number of threads.
+ *
+ * randomBelow() draws many values uniformly below a bound, with the bytes for all of them
+ *   fetched in one nextBytes() call into a per-thread buffer, which is cleared afterwards.
+ */
+public final class SecureRandomPool
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    private static final String ALGORITHM = "SHA1PRNG";
+    private static final int SEED_BYTES = 32;
+
+    // seeds the per-thread generators, once per thread
+    private static final SecureRandom SEEDS = new SecureRandom();
+
+    private static final ThreadLocal<SecureRandom> GENERATORS = new ThreadLocal<SecureRandom>()
+    {
+        @Override
+        protected SecureRandom initialValue()
+        {
+            return createGenerator();
+        }
+    };
+
+    // reused while the size of the request stays the same
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[0];
+        }
+    };
+
+    private static final Random SHARED = new ThreadForwardingRandom();
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private SecureRandomPool()
+    {
+        // static methods only
+    }
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @return a Random that uses the calling thread's generator; safe to share between threads
+     */
+    public static Random get()
+    {
+        return SHARED;
+    }
+
+    /**
+     * @return the calling thread's generator; do not hand it to other threads
+     */
+    public static SecureRandom forThisThread()
+    {
+        return GENERATORS.get();
+    }
+
+    /**
+     * @param bound at least 1
+     * @param count how many values
+     * @param random source of the bytes, e.g. get()
+     * @return count values, each uniform in [0, bound)
+     */
+    public static BigInteger[] randomBelow(final BigInteger bound,
+                                           final int count,
+                                           final Random random)
+    {
+        if (bound.signum() <= 0)
+        {
+            throw new SecretShareException("bound must be at least 1, was " + bound);
+        }
+        final int bits = bound.bitLength();
+        final int bytesEach = (bits + 7) / 8;
+        // clears the bits above bitLength in the first (most significant) byte
+        final int topMask = 0xFF >>> ((8 * bytesEach) - bits);
+
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length != count * bytesEach)
+        {
+            buffer = new byte[count * bytesEach];
+            BUFFERS.set(buffer);
+        }
+        random.nextBytes(buffer);
+
+        BigInteger[] ret = new BigInteger[count];
+        byte[] value = new byte[bytesEach];
+        for (int i = 0; i < count; i++)
+        {
+            System.arraycopy(buffer, i * bytesEach, value, 0, bytesEach);
+            value[0] &= topMask;
+            ret[i] = new BigInteger(1, value);
+            // below 2^bits, so each try succeeds with probability over 1/2
+            while (ret[i].compareTo(bound) >= 0)
+            {
+                random.nextBytes(value);
+                value[0] &= topMask;
+                ret[i] = new BigInteger(1, value);
+            }
+        }
+        Arrays.fill(buffer, (byte) 0);
+        Arrays.fill(value, (byte) 0);
+        return ret;
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private static SecureRandom createGenerator()
+    {
+        try
+        {
+            SecureRandom ret = SecureRandom.getInstance(ALGORITHM);
+            byte[] seed = new byte[SEED_BYTES];
+            SEEDS.nextBytes(seed);
+            // seeding before the first use replaces SHA1PRNG's own seeding
+            ret.setSeed(seed);
+            Arrays.fill(seed, (byte) 0);
+            return ret;
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new SecretShareException("No " + ALGORITHM + " SecureRandom", e);
+        }
+    }
+
+    /**
+     * Forwards to the calling thread's generator.
+     */
+    private static class ThreadForwardingRandom
+        extends Random
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected int next(final int bits)
+        {
+            return forThisThread().nextInt() >>> (32 - bits);
+        }
+
+        @Override
+        public void nextBytes(final byte[] bytes)
+        {
+            forThisThread().nextBytes(bytes);
+        }
+
+        @Override
+        public void setSeed(final long seed)
+        {
+            // Random() calls this before the generators exist; seeding is per thread
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package math;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import exceptions.SecretShareException;
+
+/**
+ * Berlekamp-Welch decoding in GF(p): recovers a polynomial of degree < k from n points
+ *   of which up to e = (n-k)/2 have a wrong f(x), and finds the wrong ones.
+ *
+ * Shares of a secret are a Reed-Solomon codeword: f(x) of a polynomial of degree k-1.
+ *   If E(x) is the monic "error locator" of degree e, zero at every wrong x, then
+ *      f(x_i) * E(x_i) = Q(x_i)   for every point i,  where Q = P * E
+ *   which is a linear system in the coefficients of E and Q.
+ *   Solving it is one O(n^3) elimination; then P = Q / E.
+ *
+ * Any solution of the system will do (with fewer than e wrong points there are many):
+ *   Q - P*E has degree < e+k and is zero at the n-e or more correct points, so Q = P*E.
+ */
+public final class BerlekampWelch
+{
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @param xarray the "X" values, must all be different mod p
+     * @param fofxarray the "f(x)" values, some of which may be wrong
+     * @param k number of coefficients of the polynomial (degree k-1)
+     * @param modulus prime modulus
+     * @return the polynomial and the points that do not lie on it
+     * @throws SecretShareException if there are fewer than k points,
+     *         or more than (n-k)/2 of them are wrong
+     */
+    public static Decoded decode(final BigInteger[] xarray,
+                                 final BigInteger[] fofxarray,
+                                 final int k,
+                                 final BigInteger modulus)
+    {
+        if (xarray.length != fofxarray.length)
+        {
+            throw new SecretShareException("Unequal length arrays are not allowed");
+        }
+        if (modulus == null)
+        {
+            throw new SecretShareException("modulus cannot be null");
+        }
+        final int n = xarray.length;
+        if ((k < 1) || (n < k))
+        {
+            throw new SecretShareException("Need at least k=" + k + " points, have " + n);
+        }
+        final int e = (n - k) / 2;
+
+        BigInteger[] xs = new BigInteger[n];
+        BigInteger[] ys = new BigInteger[n];
+        for (int i = 0; i < n; i++)
+        {
+            xs[i] = xarray[i].mod(modulus);
+            ys[i] = fofxarray[i].mod(modulus);
+        }
+
+        // unknowns: Q[0 .. e+k-1], then E[0 .. e-1]; E[e] is 1
+        //   sum Q[j] x^j  -  y * sum E[j] x^j  =  y * x^e
+        final int qSize = e + k;
+        final int unknowns = qSize + e;
+        BigInteger[][] matrix = new BigInteger[n][unknowns + 1];
+        for (int i = 0; i < n; i++)
+        {
+            BigInteger power = BigInteger.ONE;
+            for (int j = 0; j < qSize; j++)
+            {
+                matrix[i][j] = power;
+                if (j < e)
+                {
+                    matrix[i][qSize + j] = ys[i].multiply(power).negate().mod(modulus);
+                }
+                else if (j == e)
+                {
+                    matrix[i][unknowns] = ys[i].multiply(power).mod(modulus);
+                }
+                // qSize > e, so the right hand side is always filled in
+                power = power.multiply(xs[i]).mod(modulus);
+            }
+        }
+
+        BigInteger[] solution = solve(matrix, unknowns, modulus);
+        BigInteger[] q = Arrays.copyOfRange(solution, 0, qSize);
+        BigInteger[] locator = new BigInteger[e + 1];
+        System.arraycopy(solution, qSize, locator, 0, e);
+        locator[e] = BigInteger.ONE;
+
+        BigInteger[] coefficients = divideExactly(q, locator, k, modulus);
+
+        int[] wrong = new int[n];
+        int wrongCount = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (! evaluate(coefficients, xs[i], modulus).equals(ys[i]))
+            {
+                wrong[wrongCount++] = i;
+            }
+        }
+        if (wrongCount > e)
+        {
+            throw new SecretShareException("More than " + e + " of the " + n + " points are wrong");
+        }
+        return new Decoded(coefficients, Arrays.copyOf(wrong, wrongCount));
+    }
+
+    /**
+     * Gauss-Jordan elimination in GF(p) of a system with any number of rows;
+     *   unknowns that are not determined are set to zero.
+     *
+     * @throws SecretShareException if the system has no solution
+     */
+    private static BigInteger[] solve(final BigInteger[][] matrix,
+                                      final int unknowns,
+                                      final BigInteger modulus)
+    {
+        final int rows = matrix.length;
+        int[] pivotColumnOfRow = new int[rows];
+        int pivotRow = 0;
+        for (int column = 0; (column < unknowns) && (pivotRow < rows); column++)
+        {
+            int found = -1;
+            for (int r = pivotRow; r < rows; r++)
+            {
+                if (matrix[r][column].signum() != 0)
+                {
+                    found = r;
+                    break;
+                }
+            }
+            if (found == -1)
+            {
+                // free unknown
+                continue;
+            }
+            BigInteger[] swap = matrix[found];
+            matrix[found] = matrix[pivotRow];
+            matrix[pivotRow] = swap;
+
+            final BigInteger[] work = matrix[pivotRow];
+            final BigInteger inverse = work[column].modInverse(modulus);
+            for (int c = column; c <= unknowns; c++)
+            {
+                work[c] = work[c].multiply(inverse).mod(modulus);
+            }
+            for (int r = 0; r < rows; r++)
+            {
+                final BigInteger mult = matrix[r][column];
+                if ((r == pivotRow) || (mult.signum() == 0))
+                {
+                    continue;
+                }
+                final BigInteger[] fix = matrix[r];
+                for (int c = column; c <= unknowns; c++)
+                {
+                    fix[c] = fix[c].subtract(mult.multiply(work[c])).mod(modulus);
+                }
+            }
+            pivotColumnOfRow[pivotRow++] = column;
+        }
+
+        // rows without a pivot must read 0 = 0
+        for (int r = pivotRow; r < rows; r++)
+        {
+            if (matrix[r][unknowns].signum() != 0)
+            {
+                throw new SecretShareException("Too many points are wrong to decode");
+            }
+        }
+
+        BigInteger[] ret = new BigInteger[unknowns];
+        Arrays.fill(ret, BigInteger.ZERO);
+        for (int r = 0; r < pivotRow; r++)
+        {
+            ret[pivotColumnOfRow[r]] = matrix[r][unknowns];
+        }
+        return ret;
+    }
+
+    /**
+     * @param dividend coefficients, lowest first
+     * @param divisor monic, coefficients lowest first
+     * @param k the quotient must have at most k coefficients
+     * @return the quotient, exactly k coefficients
+     * @throws SecretShareException if the division leaves a remainder or the quotient is too big
+     */
+    private static BigInteger[] divideExactly(final BigInteger[] dividend,
+                                              final BigInteger[] divisor,
+                                              final int k,
+                                              final BigInteger modulus)
+    {
+        BigInteger[] remainder = dividend.clone();
+        final int divisorDegree = divisor.length - 1;
+        final int quotientSize = dividend.length - divisorDegree;
+        BigInteger[] quotient = new BigInteger[Math.max(quotientSize, k)];
+        Arrays.fill(quotient, BigInteger.ZERO);
+        for (int d = quotientSize - 1; d >= 0; d--)
+        {
+            final BigInteger lead = remainder[d + divisorDegree];
+            quotient[d] = lead;
+            if (lead.signum() != 0)
+            {
+                for (int j = 0; j <= divisorDegree; j++)
+                {
+                    remainder[d + j] = remainder[d + j].subtract(lead.multiply(divisor[j])).mod(modulus);
+                }
+            }
+        }
+        for (BigInteger r : remainder)
+        {
+            if (r.signum() != 0)
+            {
+                throw new SecretShareException("Too many points are wrong to decode");
+            }
+        }
+        for (int d = k; d < quotient.length; d++)
+        {
+            if (quotient[d].signum() != 0)
+            {
+                throw new SecretShareException("Too many points are wrong to decode");
+            }
+        }
+        return Arrays.copyOf(quotient, k);
+    }
+
+    private static BigInteger evaluate(final BigInteger[] coefficients,
+                                       final BigInteger x,
+                                       final BigInteger modulus)
+    {
+        BigInteger ret = BigInteger.ZERO;
+        for (int i = coefficients.length - 1; i >= 0; i--)
+        {
+            ret = ret.multiply(x).add(coefficients[i]).mod(modulus);
+        }
+        return ret;
+    }
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private BerlekampWelch()
+    {
+        // no instances
+    }
+
+    /**
+     * Result of decode().
+     */
+    public static final class Decoded
+    {
+        private final BigInteger[] coefficients;
+        private final int[] wrongIndexes;
+
+        private Decoded(final BigInteger[] inCoefficients,
+                        final int[] inWrongIndexes)
+        {
+            coefficients = inCoefficients;
+            wrongIndexes = inWrongIndexes;
+        }
+
+        /**
+         * @return f(0), the constant coefficient
+         */
+        public BigInteger getConstant()
+        {
+            return coefficients[0];
+        }
+
+        /**
+         * @return all k coefficients, [0] is the constant
+         */
+        public BigInteger[] getCoefficients()
+        {
+            return coefficients.clone();
+        }
+
+        /**
+         * @return positions (in the arrays given to decode) of the points that were wrong
+         */
+        public int[] getWrongIndexes()
+        {
+            return wrongIndexes.clone();
+        }
+    }
+}
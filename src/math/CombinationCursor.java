@@ -0,0 +1,193 @@
+package math;
+
+import exceptions.SecretShareException;
+
+/**
+ * Cursor over the combinations of k indexes out of 0..n-1, in the same (lexicographic)
+ *   order as CombinationGenerator.
+ *
+ * Unlike CombinationGenerator it does not allocate anything per combination:
+ *   getIndexes() returns the cursor's own array, which next() updates in place.
+ * Every combination has a rank, 0 to C(n,k)-1, and the cursor can be moved to
+ *   any rank directly (unranking), so enumeration can be split, resumed or sampled
+ *   without walking from rank 0.
+ *
+ * Ranks are longs, so C(n,k) must be less than 2^63.
+ */
+public final class CombinationCursor
+{
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @param n number of items
+     * @param k number chosen
+     * @return C(n,k)
+     * @throws SecretShareException if C(n,k) does not fit in a long
+     */
+    public static long count(final int n,
+                             final int k)
+    {
+        return checkedCount(binomials(n, k), n, k);
+    }
+
+    /**
+     * Pascal's triangle, table[m][j] = C(m,j) for m in 0..n and j in 0..k.
+     * Entries that do not fit in a long are Long.MAX_VALUE; unranking never needs them
+     *   once C(n,k) itself fits.
+     */
+    static long[][] binomials(final int n,
+                              final int k)
+    {
+        if ((k < 1) || (k > n))
+        {
+            throw new SecretShareException("choice size must be 1 to " + n + ", was " + k);
+        }
+        long[][] table = new long[n + 1][k + 1];
+        for (int m = 0; m <= n; m++)
+        {
+            table[m][0] = 1;
+            for (int j = 1, top = Math.min(m, k); j <= top; j++)
+            {
+                long sum = table[m - 1][j - 1] + table[m - 1][j];
+                table[m][j] = (sum < 0) ? Long.MAX_VALUE : sum;
+            }
+        }
+        return table;
+    }
+
+    static long checkedCount(final long[][] binomials,
+                             final int n,
+                             final int k)
+    {
+        final long ret = binomials[n][k];
+        if (ret == Long.MAX_VALUE)
+        {
+            throw new SecretShareException("C(" + n + "," + k + ") is too big to rank with a long");
+        }
+        return ret;
+    }
+
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final int n;
+    private final long[][] binomials;
+    private final long total;
+
+    private final int[] indexes;
+    private long rank;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inN number of items
+     * @param inK number chosen
+     * @throws SecretShareException if k is not 1..n, or C(n,k) does not fit in a long
+     */
+    public CombinationCursor(final int inN,
+                             final int inK)
+    {
+        this(inN, inK, binomials(inN, inK));
+    }
+
+    CombinationCursor(final int inN,
+                      final int inK,
+                      final long[][] inBinomials)
+    {
+        n = inN;
+        binomials = inBinomials;
+        total = checkedCount(binomials, inN, inK);
+        indexes = new int[inK];
+        moveTo(0);
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * @return C(n,k), the number of combinations
+     */
+    public long getTotalNumberOfCombinations()
+    {
+        return total;
+    }
+
+    /**
+     * @return rank of the current combination, 0 to C(n,k)-1
+     */
+    public long getRank()
+    {
+        return rank;
+    }
+
+    /**
+     * @return the current combination's indexes, ascending.
+     *         This is the cursor's own array: do not modify it, and copy it if it must be kept.
+     */
+    public int[] getIndexes()
+    {
+        return indexes;
+    }
+
+    /**
+     * Move to the combination with the given rank.
+     *
+     * @param inRank 0 to C(n,k)-1
+     */
+    public void moveTo(final long inRank)
+    {
+        if ((inRank < 0) || (inRank >= total))
+        {
+            throw new SecretShareException("rank must be 0 to " + (total - 1) + ", was " + inRank);
+        }
+        // combinatorial number system: at each position, skip over the blocks of
+        //   combinations that start with a smaller index
+        long remaining = inRank;
+        int candidate = 0;
+        for (int i = 0, k = indexes.length; i < k; i++)
+        {
+            while (true)
+            {
+                final long startingHere = binomials[n - 1 - candidate][k - 1 - i];
+                if (remaining < startingHere)
+                {
+                    break;
+                }
+                remaining -= startingHere;
+                candidate++;
+            }
+            indexes[i] = candidate++;
+        }
+        rank = inRank;
+    }
+
+    /**
+     * Move to the next combination.
+     *
+     * @return false if the current combination is the last one (and the cursor did not move)
+     */
+    public boolean next()
+    {
+        final int k = indexes.length;
+        for (int i = k - 1, j = n - 1; i >= 0; i--, j--)
+        {
+            if (indexes[i] != j)
+            {
+                indexes[i]++;
+                for (int m = i + 1; m < k; m++)
+                {
+                    indexes[m] = indexes[m - 1] + 1;
+                }
+                rank++;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -48,7 +48,7 @@ public class CombinationGenerator<E>
         System.out.println("Total number=" + combos.getTotalNumberOfCombinations());
         for(List<String> combination : combos)
         {
-            System.out.println(count + ": " + combination + " {" + combos.indexesAsString + "}");
+            System.out.println(count + ": " + combination + " {" + combos.getIndexesAsString() + "}");
             count++;
         }
     }
@@ -59,16 +59,18 @@ public class CombinationGenerator<E>
 
     private final List<E> list;
 
+    private final int choiceSize;
+
     // currentIndexes contains the indexes to use for the NEXT iteration
     private int[] currentIndexes;
 
-    // indexesAsString contains either null or the CURRENT iteration's indexes
-    private String indexesAsString;
+    // the CURRENT iteration's indexes; getIndexesAsString() only formats them when asked
+    private final int[] returnedIndexes;
 
     //
     private final BigInteger totalNumberOfCombinations;
     // ranges 0 to totalNumber, where "0" means "you haven't called next() yet"
-    private BigInteger combinationNumber;
+    private long combinationNumber;
 
     // ==================================================
     // factories
@@ -94,7 +96,9 @@ public class CombinationGenerator<E>
         List<E> ourlist = new ArrayList<E>(inList);
 
         this.list = Collections.unmodifiableList(ourlist);
+        this.choiceSize = inChoiceSize;
 
+        this.returnedIndexes = new int[inChoiceSize];
         this.currentIndexes = new int[inChoiceSize];
         for (int i = 0; i < inChoiceSize; i++)
         {
@@ -102,7 +106,7 @@ public class CombinationGenerator<E>
         }
 
         totalNumberOfCombinations = computeNfactdivkNkFact(this.list.size(), inChoiceSize);
-        combinationNumber = BigInteger.ZERO;
+        combinationNumber = 0;
     }
 
 
@@ -133,7 +137,7 @@ public class CombinationGenerator<E>
 
     public final BigInteger getCurrentCombinationNumber()
     {
-        return combinationNumber;
+        return BigInteger.valueOf(combinationNumber);
     }
 
     public final BigInteger getTotalNumberOfCombinations()
@@ -155,7 +159,37 @@ public class CombinationGenerator<E>
 
     public String getIndexesAsString()
     {
-        return indexesAsString;
+        if (combinationNumber == 0)
+        {
+            return null;
+        }
+        return Arrays.toString(returnedIndexes);
+    }
+
+    /**
+     * @return the list the combinations are chosen from, in the order the indexes refer to
+     */
+    public List<E> getList()
+    {
+        return list;
+    }
+
+    /**
+     * @return allocation-free cursor over the same combinations, by index, positioned at rank 0
+     * @throws SecretShareException if there are too many combinations to rank with a long
+     */
+    public CombinationCursor cursor()
+    {
+        return new CombinationCursor(list.size(), choiceSize);
+    }
+
+    /**
+     * @return splittable range over all of the same combinations, by index
+     * @throws SecretShareException if there are too many combinations to rank with a long
+     */
+    public CombinationRange range()
+    {
+        return new CombinationRange(list.size(), choiceSize);
     }
 
     @Override
@@ -168,16 +202,16 @@ public class CombinationGenerator<E>
             throw new NoSuchElementException();
         }
 
-        combinationNumber = combinationNumber.add(BigInteger.ONE);
+        combinationNumber++;
 
-        List<E> currentCombination = new ArrayList<E>();
+        List<E> currentCombination = new ArrayList<E>(choiceSize);
         for (int i : currentIndexes)
         {
             currentCombination.add(list.get(i));
         }
 
         // capture before moving the indexes:
-        indexesAsString = Arrays.toString(currentIndexes);
+        System.arraycopy(currentIndexes, 0, returnedIndexes, 0, choiceSize);
 
         moveIndexesToNextCombination();
 
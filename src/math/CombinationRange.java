@@ -0,0 +1,174 @@
+package math;
+
+import exceptions.SecretShareException;
+
+/**
+ * A range of combination ranks [from, to) of k indexes out of 0..n-1,
+ *   that can be split in balanced halves for parallel enumeration.
+ *
+ * This follows the shape of java.util.Spliterator (not available before Java 8):
+ *   trySplit() hands off the first half of the remaining ranks as a new range,
+ *   tryAdvance() and forEachRemaining() visit combinations through a CombinationCursor,
+ *   which is positioned by unranking, once, when a range starts visiting.
+ *
+ * A range is used by one thread at a time; the ranges split off it are independent.
+ */
+public final class CombinationRange
+{
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final int n;
+    private final int k;
+    // shared by all ranges split off the same space; never modified
+    private final long[][] binomials;
+
+    // next rank to visit, and the end (exclusive)
+    private long next;
+    private final long end;
+
+    // created when the range starts visiting
+    private CombinationCursor cursor;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inN number of items
+     * @param inK number chosen
+     * @throws SecretShareException if k is not 1..n, or C(n,k) does not fit in a long
+     */
+    public CombinationRange(final int inN,
+                            final int inK)
+    {
+        this(inN, inK, 0, CombinationCursor.count(inN, inK));
+    }
+
+    /**
+     * @param inN number of items
+     * @param inK number chosen
+     * @param from first rank
+     * @param to end rank (exclusive), at most C(n,k)
+     */
+    public CombinationRange(final int inN,
+                            final int inK,
+                            final long from,
+                            final long to)
+    {
+        this(inN, inK, CombinationCursor.binomials(inN, inK), from, to);
+    }
+
+    private CombinationRange(final int inN,
+                             final int inK,
+                             final long[][] inBinomials,
+                             final long from,
+                             final long to)
+    {
+        final long total = CombinationCursor.checkedCount(inBinomials, inN, inK);
+        if ((from < 0) || (from > to) || (to > total))
+        {
+            throw new SecretShareException("range [" + from + "," + to + ") is not within [0," + total + ")");
+        }
+        n = inN;
+        k = inK;
+        binomials = inBinomials;
+        next = from;
+        end = to;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * @return number of combinations not visited yet
+     */
+    public long estimateSize()
+    {
+        return end - next;
+    }
+
+    /**
+     * Split off the first half of the remaining combinations.
+     *
+     * @return range with the first half, or null if fewer than 2 combinations remain;
+     *         this range keeps the second half
+     */
+    public CombinationRange trySplit()
+    {
+        final long size = end - next;
+        if (size < 2)
+        {
+            return null;
+        }
+        final long middle = next + (size / 2);
+        CombinationRange ret = new CombinationRange(n, k, binomials, next, middle);
+        next = middle;
+        cursor = null;
+        return ret;
+    }
+
+    /**
+     * Visit the next combination, if any.
+     *
+     * @param action to call
+     * @return false if there were no combinations left
+     */
+    public boolean tryAdvance(final Action action)
+    {
+        if (next >= end)
+        {
+            return false;
+        }
+        advance();
+        action.accept(cursor.getRank(), cursor.getIndexes());
+        return true;
+    }
+
+    /**
+     * Visit all remaining combinations, in rank order.
+     *
+     * @param action to call
+     */
+    public void forEachRemaining(final Action action)
+    {
+        while (next < end)
+        {
+            advance();
+            action.accept(cursor.getRank(), cursor.getIndexes());
+        }
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private void advance()
+    {
+        if (cursor == null)
+        {
+            cursor = new CombinationCursor(n, k, binomials);
+            cursor.moveTo(next);
+        }
+        else
+        {
+            cursor.next();
+        }
+        next++;
+    }
+
+    /**
+     * Receives each combination.
+     */
+    public interface Action
+    {
+        /**
+         * @param rank of the combination
+         * @param indexes of the combination, ascending.
+         *        Only valid during the call; do not modify.
+         */
+        public void accept(long rank, int[] indexes);
+    }
+}
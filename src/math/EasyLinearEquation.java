@@ -18,6 +18,7 @@ package math;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -59,6 +60,16 @@ import exceptions.SecretShareException;
  *   to write this class than to figure out how to use the horrible APIs they presented.
  *   [The ones with good APIs didn't support BigInteger]
  *
+ * Without a modulus, the default is Bareiss' fraction-free elimination instead:
+ *   every step divides exactly by the previous pivot, so the values stay the size of
+ *   determinants of the matrix instead of growing exponentially with the number of rows.
+ *   The "easy" cancelling can still be selected, see Elimination.
+ *
+ * With a prime modulus (see createWithPrimeModulus) the solver works in the field GF(p):
+ *   every cell is reduced mod p after every operation, and dividing is multiplying
+ *   by the inverse, so no value ever grows past p*p.
+ *   The arithmetic goes through a ModularField, which reduces with precomputed constants.
+ *
  * @author tiemens
  *
  */
@@ -70,7 +81,26 @@ public final class EasyLinearEquation
     // want to turn on debug?  See EasyLinearEquationTest.enableLogging()
     private static Logger logger = Logger.getLogger(EasyLinearEquation.class.getName());
 
-    private static boolean debugPrinting = false;
+    private static final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>()
+    {
+        @Override
+        protected Workspace initialValue()
+        {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * How the rows are eliminated when there is no modulus.
+     * [With a modulus, the rows are always cancelled in GF(p).]
+     */
+    public enum Elimination
+    {
+        /** Bareiss: fraction-free, divides exactly by the previous pivot.  The default. */
+        BAREISS,
+        /** The original "easy" way: multiply two rows by each other's values and subtract. */
+        CROSS_MULTIPLY
+    }
 
     // ==================================================
     // class static methods
@@ -101,8 +131,11 @@ public final class EasyLinearEquation
     // ==================================================
     private final List<Row> rows;
 
-    // 'modulus' can be null, which means do not perform mod() on values
-    private final BigInteger modulus;
+    // 'field' can be null, which means do not perform mod() on values
+    private final ModularField field;
+
+    // only used when 'field' is null
+    private final Elimination elimination;
 
     // ==================================================
     // factories
@@ -198,22 +231,28 @@ public final class EasyLinearEquation
 
     private EasyLinearEquation(final List<Row> inRows)
     {
-        this(inRows, null);
+        this(inRows, null, Elimination.BAREISS);
     }
     private EasyLinearEquation(final List<Row> inRows,
-                               final BigInteger inModulus)
+                               final ModularField inField,
+                               final Elimination inElimination)
     {
         rows = new ArrayList<Row>();
         rows.addAll(inRows);
 
-        modulus = inModulus;
+        field = inField;
+        elimination = inElimination;
     }
 
+    /**
+     * @param primeModulus must be prime, so that every non-zero value has an inverse
+     * @return solver that works in GF(primeModulus)
+     */
     public EasyLinearEquation createWithPrimeModulus(BigInteger primeModulus)
     {
         if (primeModulus != null)
         {
-            return new EasyLinearEquation(this.rows, primeModulus);
+            return createWithPrimeField(new ModularField(primeModulus));
         }
         else
         {
@@ -221,587 +260,451 @@ public final class EasyLinearEquation
         }
     }
 
-
-    // ==================================================
-    // public methods
-    // ==================================================
-
-    public EasySolve solve()
+    /**
+     * @param primeField GF(p) of a prime p
+     * @return solver that works in that field
+     */
+    public EasyLinearEquation createWithPrimeField(ModularField primeField)
     {
-        EasySolve ret = null;
-
-        List<Row> solverows = new ArrayList<Row>();
-        solverows.addAll(rows);
-        debugRows("Initial rows", solverows, modulus);
-        for (int workrowindex = 0, maxindex = solverows.size(); workrowindex < maxindex; workrowindex++)
-        {
-            Row otherrow = solverows.get(workrowindex);
-            for (int fixindex = workrowindex + 1; fixindex < maxindex; fixindex++)
-            {
-                int columnIndexToCancel = workrowindex + 1;
-
-                Row cancelrowr = solverows.get(fixindex).cancelColumn(columnIndexToCancel,
-                                                                      otherrow,
-                                                                      modulus);
-                solverows.set(fixindex, cancelrowr);
-            }
-            debugRows("after workrowindex=" + workrowindex + " finished", solverows, modulus);
-        }
-        debugRows("after all loops", solverows, modulus);
-        //
-        // the matrix should look like this now:
-        //
-        // 33  a b c
-        // -51 0 d e
-        // -13 0 0 f
-        // so, start at the bottom, and solve and cancel the other direction:
-        for (int workrowindex = solverows.size() - 1; workrowindex >= 0; workrowindex--)
+        if (primeField != null)
         {
-            Row reducedToOne = solverows.get(workrowindex).solveThisRow(modulus);
-            logger.fine("reverse, index=" + workrowindex + " is " + reducedToOne.debugRow());
-            solverows.set(workrowindex, reducedToOne);
-            for (int fixindex = workrowindex - 1; fixindex >= 0; fixindex--)
-            {
-                int columnIndexToCancel = workrowindex + 1;
-
-                logger.finer("  going to cancel fixindex=" + fixindex + " is " +
-                             solverows.get(fixindex).debugRow() + " using row " +
-                             reducedToOne.debugRow());
-                Row cancelrowr = solverows.get(fixindex).cancelColumn(columnIndexToCancel,
-                                                                      reducedToOne,
-                                                                      modulus);
-                solverows.set(fixindex, cancelrowr);
-            }
-            debugRows("After reverse loopindex=" + workrowindex + " finished", solverows, modulus);
+            return new EasyLinearEquation(this.rows, primeField, this.elimination);
         }
-        //
-        // the matrix should look like this now:
-        //
-        //  3 1 0 0
-        // -5 0 1 0
-        // -3 0 0 1
-        BigInteger[] answers = new BigInteger[solverows.size() + 1];
-        answers[0] = null;
-        for (int i = 1, n = answers.length; i < n; i++)
+        else
         {
-            answers[i] = solverows.get(i - 1).getColumn(0);
+            throw new SecretShareException("field cannot be null");
         }
-        ret = new EasySolve(answers);
-        return ret;
     }
-    private void debugRows(String where,
-                           List<Row> solverows,
-                           BigInteger modulus)
+
+    /**
+     * @param inElimination how to eliminate when there is no modulus
+     * @return solver that uses that elimination
+     */
+    public EasyLinearEquation createWithElimination(Elimination inElimination)
     {
-        // want to turn on debug?  See EasyLinearEquationUT.enableLogging()
-        if (logger.isLoggable(Level.FINE))
+        if (inElimination != null)
         {
-            logger.fine(where + " (modulus=" + modulus + ")");
-            for (Row row : solverows)
-            {
-                logger.fine(row.debugRow());
-            }
+            return new EasyLinearEquation(this.rows, this.field, inElimination);
+        }
+        else
+        {
+            throw new SecretShareException("elimination cannot be null");
         }
     }
+
+
     // ==================================================
-    // non public methods
+    // public methods
     // ==================================================
-    public static class EasySolve
-    {
-        private final BigInteger[] answers;
-        public EasySolve(BigInteger[] inAnswers)
-        {
-            answers = new BigInteger[inAnswers.length];
-            System.arraycopy(inAnswers, 0, answers, 0, answers.length);
-        }
 
-        public BigInteger getAnswer(int i)
+    /**
+     * Solve the equations.
+     *
+     * The elimination is done in place, in a matrix that belongs to the calling thread
+     *   and is reused by that thread's next solve(): apart from the BigInteger values
+     *   themselves, a solve only allocates its answers.
+     *
+     * @return the answers
+     * @throws SecretShareException if the equations cannot be solved
+     */
+    public EasySolve solve()
+    {
+        final int size = rows.size();
+        final Workspace workspace = workspaces.get();
+        final BigInteger[][] matrix = workspace.load(rows, field);
+        try
         {
-            if (i < 0)
+            debugRows("Initial rows", matrix, size);
+            if (field != null)
             {
-                throw new SecretShareException("Answer index cannot be negative: " + i);
+                solveModulus(matrix, size);
             }
-            if (i == 0)
+            else if (elimination == Elimination.BAREISS)
             {
-                throw new SecretShareException("Answer index 0 is the constant, not an answer." +
-                                               "  Use range 1-n [not 0-n-1]");
+                solveFractionFree(matrix, size);
             }
-            return answers[i];
-        }
-
-    }
-
-    private static class Trial
-    {
-        private final String which;
-        private final BigInteger result;
-        private final boolean correct;
-
-        public Trial(final String inWhich,
-                     final BigInteger inOriginal,
-                     final BigInteger inDivideby)
-        {
-            which = inWhich;
-            result = inOriginal.divide(inDivideby);
-            correct = result.multiply(inDivideby).equals(inOriginal);
-        }
-
-        public BigInteger getResult()
-        {
-            if (correct)
+            else
             {
-                return result;
+                solveCrossMultiply(matrix, size);
             }
-            else
+            debugRows("Solved rows", matrix, size);
+
+            //
+            // the matrix should look like this now:
+            //
+            //  3 1 0 0
+            // -5 0 1 0
+            // -3 0 0 1
+            BigInteger[] answers = new BigInteger[size + 1];
+            answers[0] = null;
+            for (int i = 1, n = answers.length; i < n; i++)
             {
-                throw new SecretShareException("Tried to get result from non-correct trial");
+                answers[i] = matrix[i - 1][0];
             }
+            return new EasySolve(answers);
         }
-        @SuppressWarnings("unused")
-        public String dumpDebug()
+        finally
         {
-            return "Trial[" + which + " result=" + result;
+            // do not keep (secret) values around in the thread's workspace
+            workspace.clear(size);
         }
+    }
 
+    // ==================================================
+    // non public methods
+    // ==================================================
 
-        /**
-         * Construct all the permutations we need.
-         */
-        public static List<Trial> createList(final BigInteger original,
-                                             final BigInteger divideby,
-                                             final BigInteger useModulus)
-        {
-            List<Trial> list =  new ArrayList<Trial>();
-
-            BigInteger o = original;
-            int c = 0;
-            Trial trial = new Trial("" + c, o, divideby);
-            list.add(trial);
-            boolean somethingBroke = false;
-            while (! trial.correct)
-            {
-                c++;
-                if (c > 10000)
-                {
-                    somethingBroke = true;
-                    break;
-                }
-                o = o.add(useModulus);
-                trial = new Trial("" + c, o, divideby);
-            }
-            if (somethingBroke)
-            {
-                System.out.format("ERROR\noriginal %80s\n" +
-                                        "dividedby %80s\n" +
-                                        "modulus   %80s\n",
-                                        original,
-                                        divideby,
-                                        useModulus);
-            }
-//            c = 0;
-//            while (! trial.correct)
-//            {
-//                c++;
-//                if (c > 10000)
-//                {
-//                    throw new SecretShareException("two loop failure");
-//                }
-//                o = o.subtract(useModulus);
-//                trial = new Trial("" + c, o, divideby);
-//            }
-
-            list.add(trial);
-            return list;
-        }
-        /**
-         * Pick the "best" correct result [if any].
-         *
-         */
-        public static Trial pickSuccess(List<Trial> list)
+    /**
+     * Gaussian elimination in GF(p).
+     * Each work row is scaled so its pivot is 1, which makes cancelling a
+     *   multiply-and-subtract, and back-substitution needs no more division.
+     */
+    private void solveModulus(final BigInteger[][] matrix,
+                              final int size)
+    {
+        final int width = size + 1;
+        final boolean debug = logger.isLoggable(Level.FINE);
+        for (int workrowindex = 0; workrowindex < size; workrowindex++)
         {
-            if (list.get(list.size() - 1).correct)
+            final int pivotColumn = workrowindex + 1;
+            swapInNonZeroPivot(matrix, size, workrowindex);
+            final BigInteger[] workrow = matrix[workrowindex];
+
+            // columns 1 to pivotColumn-1 are already zero
+            final BigInteger inverse = field.inverse(workrow[pivotColumn]);
+            workrow[0] = field.mul(workrow[0], inverse);
+            for (int c = pivotColumn + 1; c < width; c++)
             {
-                return list.get(list.size() - 1);
+                workrow[c] = field.mul(workrow[c], inverse);
             }
-            else
+            workrow[pivotColumn] = BigInteger.ONE;
+
+            for (int fixindex = workrowindex + 1; fixindex < size; fixindex++)
             {
-                System.out.println("WARN: trial[0] did not succeed.");
-                for (Trial ret : list)
+                final BigInteger[] fixrow = matrix[fixindex];
+                final BigInteger mult = fixrow[pivotColumn];
+                if (mult.signum() == 0)
                 {
-                    if (ret.correct)
-                    {
-                        return ret;
-                    }
+                    continue;
                 }
-                throw new SecretShareException("Programmer error, no trial correct, list.size=" + list.size());
+                fixrow[0] = field.subtract(fixrow[0], field.mul(workrow[0], mult));
+                for (int c = pivotColumn + 1; c < width; c++)
+                {
+                    fixrow[c] = field.subtract(fixrow[c], field.mul(workrow[c], mult));
+                }
+                fixrow[pivotColumn] = BigInteger.ZERO;
             }
-        }
-
-
-
-        /**
-         * Original implementation.  Wrong.
-         */
-        public static List<Trial> createList2(final BigInteger original,
-                                             final BigInteger divideby,
-                                             final BigInteger useModulus)
-        {
-            List<Trial> list =  new ArrayList<Trial>();
-
-            list.add(new Trial("original", original, divideby));
-            list.add(new Trial("modoriginal", original.mod(useModulus), divideby));
-            list.add(new Trial("moddivide", original, divideby.mod(useModulus)));
-            list.add(new Trial("mod both", original.mod(useModulus), divideby.mod(useModulus)));
-
-            BigInteger gcd = original.gcd(divideby);
-            if ((gcd != null) &&
-                (gcd.compareTo(BigInteger.ONE) > 0))
+            if (debug)
             {
-                BigInteger divO = original.divide(gcd);
-                BigInteger divD = divideby.divide(gcd);
-                list.add(new Trial("gcd original", divO, divD));
-                list.add(new Trial("gcd modoriginal", divO.mod(useModulus), divD));
-                list.add(new Trial("gcd moddivide", divO, divD.mod(useModulus)));
-                list.add(new Trial("gcd both", divO.mod(useModulus), divD.mod(useModulus)));
+                debugRows("after workrowindex=" + workrowindex + " finished", matrix, size);
             }
-            return list;
         }
+        substituteBackwards(matrix, size);
     }
 
-    private static class Row
+    /**
+     * The original "easy" elimination without a modulus:
+     *   row = row * pivot  -  workrow * row[pivotColumn]
+     * The values grow exponentially with the number of rows.
+     */
+    private void solveCrossMultiply(final BigInteger[][] matrix,
+                                    final int size)
     {
-        private final BigInteger[] cols;
-
-        public static Row create(BigInteger[] in)
-        {
-            return new Row(in);
-        }
-        public Row(Row copy)
-        {
-            this(copy.cols);
-        }
-        private Row(BigInteger[] in)
+        final int width = size + 1;
+        final boolean debug = logger.isLoggable(Level.FINE);
+        for (int workrowindex = 0; workrowindex < size; workrowindex++)
         {
-            cols = new BigInteger[in.length];
-            System.arraycopy(in, 0, cols, 0, cols.length);
-        }
-        /**
-         * @return row with col[0] non-zero and one-and-only-one other column non-zero,
-         *           all the other columns must be ZERO    OR
-         *         throw exception
-         * @throws SecretShareException if more than 2 columns [the 1st and 1 other] are non-zero
-         */
-        public Row solveThisRow(final BigInteger useModulus)
-        {
-            // Determine non-zero column:
-            Integer nonZeroColumn = null;
-            for (int col = 1, n = cols.length; col < n; col++)
+            final int pivotColumn = workrowindex + 1;
+            swapInNonZeroPivot(matrix, size, workrowindex);
+            final BigInteger[] workrow = matrix[workrowindex];
+            final BigInteger pivot = workrow[pivotColumn];
+
+            for (int fixindex = workrowindex + 1; fixindex < size; fixindex++)
             {
-                if (! this.isColumnZero(col))
+                final BigInteger[] fixrow = matrix[fixindex];
+                final BigInteger mult = fixrow[pivotColumn];
+                if (mult.signum() == 0)
                 {
-                    if (nonZeroColumn != null)
-                    {
-                        logger.severe("Row cannot be solved:\n" + debugRow());
-                        throw new SecretShareException("Two columns are non-zero, c=" +
-                                                       nonZeroColumn + " and c=" + col);
-                    }
-                    else
-                    {
-                        nonZeroColumn = col;
-                    }
+                    continue;
                 }
+                fixrow[0] = fixrow[0].multiply(pivot).subtract(workrow[0].multiply(mult));
+                for (int c = pivotColumn + 1; c < width; c++)
+                {
+                    fixrow[c] = fixrow[c].multiply(pivot).subtract(workrow[c].multiply(mult));
+                }
+                fixrow[pivotColumn] = BigInteger.ZERO;
             }
-            if (nonZeroColumn == null)
+            if (debug)
             {
-                throw new SecretShareException("No non-zero column found in row; error");
+                debugRows("after workrowindex=" + workrowindex + " finished", matrix, size);
             }
+        }
 
+        //
+        // the matrix should look like this now:
+        //
+        // 33  a b c
+        // -51 0 d e
+        // -13 0 0 f
+        // so, start at the bottom, and solve and cancel the other direction:
+        for (int workrowindex = size - 1; workrowindex >= 0; workrowindex--)
+        {
+            divideByPivot(matrix[workrowindex], workrowindex + 1);
+            cancelAbove(matrix, workrowindex);
+        }
+    }
 
-            Row ret = new Row(this);
-            final BigInteger divideby = cols[nonZeroColumn];
+    /**
+     * Bareiss' fraction-free elimination, done Gauss-Jordan style (all other rows, not
+     *   just the rows below the pivot), so no back-substitution is needed.
+     *
+     * Step k uses row k to cancel column k+1 in every other row i:
+     *      m[i][c] = (pivot * m[i][c] - m[i][k+1] * m[k][c]) / previousPivot
+     * and that division is always exact.
+     * At the end every row reads   m[i][0] = det * answer[i],  with det on the diagonal.
+     */
+    private void solveFractionFree(final BigInteger[][] matrix,
+                                   final int size)
+    {
+        final int width = size + 1;
+        final boolean debug = logger.isLoggable(Level.FINE);
+        BigInteger previousPivot = BigInteger.ONE;
+        for (int workrowindex = 0; workrowindex < size; workrowindex++)
+        {
+            final int pivotColumn = workrowindex + 1;
+            swapInNonZeroPivot(matrix, size, workrowindex);
+            final BigInteger[] workrow = matrix[workrowindex];
+            final BigInteger pivot = workrow[pivotColumn];
 
-            //
-            // This is kind of like 'row.divideby()', except:
-            // a) we know only 2 cols[] are non-zero
-            // b) we absolutely need to make sure the result does not have a remainder,
-            //    which means we have to "know" about the modulus sometimes
-            //
-            for (int col = 0, n = ret.cols.length; col < n; col++)
+            for (int fixindex = 0; fixindex < size; fixindex++)
             {
-                if ((col == 0) ||
-                    (col == nonZeroColumn))
+                if (fixindex == workrowindex)
                 {
-                    BigInteger original = ret.cols[col];
-                    BigInteger result = divideNormallyOrModulus(original, divideby, useModulus);
-                           // this doesn't always work:  result = original.divide(divideby);
-                    ret.cols[col] = result;
+                    continue;
                 }
-                else
+                final BigInteger[] fixrow = matrix[fixindex];
+                final BigInteger mult = fixrow[pivotColumn];
+                for (int c = 0; c < width; c++)
                 {
-                    // Leave the column alone.  Just do a safety-check:
-                    if (! ret.isColumnZero(col))
+                    if (c != pivotColumn)
                     {
-                        throw new SecretShareException("Programmer error.  " +
-                                                       "Column " + col + " must be zero, " +
-                                                       "but instead is " + ret.getColumn(col));
+                        fixrow[c] = fixrow[c].multiply(pivot)
+                                             .subtract(workrow[c].multiply(mult))
+                                             .divide(previousPivot);
                     }
                 }
+                fixrow[pivotColumn] = BigInteger.ZERO;
             }
-
-            return ret;
-        }
-
-
-        /**
-         * This _should be_ the implementation.
-         * The problem is, it doesn't work.
-         *
-         */
-        @SuppressWarnings("unused")
-        private BigInteger divideNormallyOrModulusBroken(final BigInteger original,
-                                                         final BigInteger divideby,
-                                                         final BigInteger useModulus)
-        {
-            BigInteger result = null;
-
-            if (useModulus == null)
-            {
-                result = original.divide(divideby);
-            }
-            else
+            previousPivot = pivot;
+            if (debug)
             {
-                result = original.divide(divideby);
-
-                // do the "math check" before the modulus:
-                safetyCheckDivision(result, divideby, original);
-
-                // modfix: not proven to help reduce errors:  mod down the result
-                //result = result.mod(useModulus);
+                debugRows("after workrowindex=" + workrowindex + " finished", matrix, size);
             }
+        }
 
-            return result;
+        for (int workrowindex = 0; workrowindex < size; workrowindex++)
+        {
+            divideByPivot(matrix[workrowindex], workrowindex + 1);
         }
+    }
 
-        /**
-         * The modulus stuff is really strange.
-         * Sometimes the divide-by just works.
-         * Sometimes it is negative but "odd", and needs mod() to positive and "even".
-         * Sometimes it is positive but "too big and odd" and needs mod() to a smaller "even" number.
-         * Sometimes it needs multiple-add-the-modulus, especially for small values of
-         *       the modulus versus large values of the coefficients.
-         *
-         * This routine just tries a bunch of things, including:
-         *     1) original / divideby and
-         *     2) (original mod useModulus) / divideby
-         *  See class Trial.
-         *
-         * @param original
-         * @param divideby
-         * @param useModulus
-         * @return
-         */
-        private BigInteger divideNormallyOrModulus(final BigInteger original,
-                                                   final BigInteger divideby,
-                                                   final BigInteger useModulus)
+    /**
+     * For an upper triangular matrix with 1s on the diagonal:
+     *   cancel every column above the diagonal, from the bottom row up.
+     */
+    private void substituteBackwards(final BigInteger[][] matrix,
+                                     final int size)
+    {
+        for (int workrowindex = size - 1; workrowindex >= 0; workrowindex--)
         {
-            BigInteger result = null;
+            cancelAbove(matrix, workrowindex);
+        }
+    }
 
-            if (useModulus == null)
-            {
-                result = original.divide(divideby);
-            }
-            else
+    /**
+     * Row workrowindex has been reduced to  answer = 1 * unknown:
+     *   subtract it from the rows above, so they no longer contain that unknown.
+     */
+    private void cancelAbove(final BigInteger[][] matrix,
+                             final int workrowindex)
+    {
+        final int pivotColumn = workrowindex + 1;
+        final BigInteger answer = matrix[workrowindex][0];
+        for (int fixindex = workrowindex - 1; fixindex >= 0; fixindex--)
+        {
+            final BigInteger[] fixrow = matrix[fixindex];
+            final BigInteger mult = fixrow[pivotColumn];
+            if (mult.signum() != 0)
             {
-                // Create all of the trial "divide by" combinations
-                List<Trial> list = Trial.createList(original, divideby, useModulus);
-
-                // Pick the "best correct solution"
-                Trial success = Trial.pickSuccess(list);
-
-                if (success == null)
+                if (field != null)
                 {
-                    throw new SecretShareException("All trial divide bys failed");
+                    fixrow[0] = field.subtract(fixrow[0], field.mul(answer, mult));
                 }
                 else
                 {
-                    result = success.getResult();
-                    result = result.mod(useModulus);
-                    //
-                    // For big (192-bit) modulus, it is almost always "0"
-                    // For small (e.g. 59561) modulus, it ranges from 0 to 20
-                    // run "UT.testFirst()"
-                    if (debugPrinting)
-                    {
-                        // Debug printing
-                        if (! "0".equals(success.which))
-                        {
-                        System.out.println("Trial.sucess.which=" + success.which);
-                        }
-                    }
+                    fixrow[0] = fixrow[0].subtract(answer.multiply(mult));
                 }
+                fixrow[pivotColumn] = BigInteger.ZERO;
             }
-
-            // safetyCheckDivision(result, divideby, original);
-            return result;
         }
+    }
+
+    /**
+     * Without a modulus: the row must be  constant = pivot * unknown  [other columns zero],
+     *   and becomes  constant/pivot = 1 * unknown.
+     */
+    private static void divideByPivot(final BigInteger[] row,
+                                      final int pivotColumn)
+    {
+        row[0] = row[0].divide(row[pivotColumn]);
+        row[pivotColumn] = BigInteger.ONE;
+    }
 
-        private void safetyCheckDivision(BigInteger result,
-                                         BigInteger divideby,
-                                         BigInteger original)
+    /**
+     * Make sure the row at workrowindex can be used to cancel its column in the other rows,
+     *   by swapping it with a lower row if its own value in that column is zero.
+     */
+    private static void swapInNonZeroPivot(final BigInteger[][] matrix,
+                                           final int size,
+                                           final int workrowindex)
+    {
+        final int column = workrowindex + 1;
+        if (matrix[workrowindex][column].signum() != 0)
         {
-            if (! result.multiply(divideby).equals(original))
-            {
-                throw new SecretShareException("division left remainder: original=" +
-                                               original + "\nDivided by=" + divideby +
-                                               "\nError.");
-            }
+            return;
         }
-        private boolean isColumnZero(int index)
+        for (int swapindex = workrowindex + 1; swapindex < size; swapindex++)
         {
-            if (this.getColumn(index).compareTo(BigInteger.ZERO) == 0)
+            if (matrix[swapindex][column].signum() != 0)
             {
-                return true;
-            }
-            else
-            {
-                return false;
+                BigInteger[] swap = matrix[swapindex];
+                matrix[swapindex] = matrix[workrowindex];
+                matrix[workrowindex] = swap;
+                return;
             }
         }
-        public String debugRow()
+        throw new SecretShareException("No row has a non-zero value in column " + column +
+                                       "; the equations are not independent");
+    }
+
+    private void debugRows(String where,
+                           BigInteger[][] matrix,
+                           int size)
+    {
+        // want to turn on debug?  See EasyLinearEquationUT.enableLogging()
+        if (logger.isLoggable(Level.FINE))
         {
-            String ret = "";
-            String sep = "";
-            for (BigInteger c : cols)
+            logger.fine(where + " (field=" + field + ")");
+            for (int r = 0; r < size; r++)
             {
-                ret += sep;
-                sep = ",";
-                ret += c.toString();
+                logger.fine(debugRow(matrix[r], size + 1));
             }
-            return ret;
         }
-        public BigInteger getColumn(final int index)
+    }
+
+    private static String debugRow(final BigInteger[] row,
+                                   final int width)
+    {
+        StringBuilder ret = new StringBuilder();
+        String sep = "";
+        for (int c = 0; c < width; c++)
         {
-            return cols[index];
+            ret.append(sep);
+            sep = ",";
+            ret.append(row[c]);
         }
-        /**
-         * @param index of column to cancel (range 1-to-n)
-         * @param otherrow to use for the cancel operation
-         * @return row with column value set to "0"
-         */
-        public Row cancelColumn(final int index,
-                                final Row otherrow,
-                                final BigInteger useModulus)
-        {
-            // special case: our col[index] is already zero:
-            if (this.isColumnZero(index))
-            {
-                return this;
-            }
+        return ret.toString();
+    }
 
+    public static class EasySolve
+    {
+        private final BigInteger[] answers;
+        public EasySolve(BigInteger[] inAnswers)
+        {
+            answers = new BigInteger[inAnswers.length];
+            System.arraycopy(inAnswers, 0, answers, 0, answers.length);
+        }
 
-            boolean samesign = this.sameSign(index, otherrow);
-            BigInteger mult = this.getColumn(index);
-            if (samesign)
+        public BigInteger getAnswer(int i)
+        {
+            if (i < 0)
             {
-                mult = mult.negate();
+                throw new SecretShareException("Answer index cannot be negative: " + i);
             }
-            Row cancel = otherrow.multiplyConstant(mult);
-
-            mult = otherrow.getColumn(index);
-            Row usethis = this.multiplyConstant(mult);
-            if (! samesign)
+            if (i == 0)
             {
-                usethis = usethis.negate();
+                throw new SecretShareException("Answer index 0 is the constant, not an answer." +
+                                               "  Use range 1-n [not 0-n-1]");
             }
+            return answers[i];
+        }
 
-            Row ret = null;
-            if (! usethis.sameSign(index, cancel))
-            {
-                ret = usethis.add(cancel);
+    }
 
-                if (useModulus != null)
-                {
-                    if (ret.cols[0].signum() == -1)
-                    {
-                        // modfix: not proven to reduce errors: mod down the column value
-                        //ret.cols[0] = ret.cols[0].mod(useModulus);
+    private static class Row
+    {
+        private final BigInteger[] cols;
 
-                        // modfix: let's try keeping cols[0] positive:
-                        usethis = usethis.negate();
-                        cancel = cancel.negate();
-                        ret = usethis.add(cancel);
-                    }
-                }
-            }
-            else
-            {
-                throw new SecretShareException("prog error this(" + index + ")=" +
-                                               this.getColumn(index) +
-                                               " other(" + index + ")=" +
-                                               cancel.getColumn(index));
-            }
-            return ret;
-        }
-        public boolean sameSign(final int index,
-                                final Row other)
+        public static Row create(BigInteger[] in)
         {
-            return sameSign(this.getColumn(index), other.getColumn(index));
+            return new Row(in);
         }
-        private boolean sameSign(final BigInteger one,
-                                 final BigInteger other)
+        private Row(BigInteger[] in)
         {
-            int thisc  = one.compareTo(BigInteger.ZERO);
-            int otherc = other.compareTo(BigInteger.ZERO);
-            // change ZERO into positive
-            thisc  = (thisc == 0)  ? 1 : thisc;
-            otherc = (otherc == 0) ? 1 : otherc;
+            cols = new BigInteger[in.length];
+            System.arraycopy(in, 0, cols, 0, cols.length);
+        }
+    }
 
-            boolean ret = (thisc == otherc);
-            logger.finest("  samesign=" + ret + " on one=" + one +
-                          " other=" + other);
+    /**
+     * The matrix that solve() works on, one per thread.
+     * It only ever grows, so a thread that keeps solving equations of the same size
+     *   allocates it once.
+     */
+    private static final class Workspace
+    {
+        private BigInteger[][] matrix = new BigInteger[0][0];
 
-            return ret;
-        }
-        public Row multiplyConstant(final BigInteger mult)
+        /**
+         * @return the matrix, filled with a copy of the rows [reduced in the field, if not null]
+         */
+        public BigInteger[][] load(final List<Row> rows,
+                                   final ModularField field)
         {
-            Row ret = new Row(this);
-
-            for (int c = 0, n = cols.length; c < n; c++)
+            final int size = rows.size();
+            final int width = size + 1;
+            if ((matrix.length < size) ||
+                ((size > 0) && (matrix[0].length < width)))
             {
-                ret.cols[c] = this.cols[c].multiply(mult);
+                matrix = new BigInteger[size][width];
             }
-            return ret;
-        }
-        @SuppressWarnings("unused")
-        public Row addConstant(final BigInteger add)
-        {
-            Row ret = new Row(this);
-
-            for (int c = 0, n = cols.length; c < n; c++)
+            for (int r = 0; r < size; r++)
             {
-                ret.cols[c] = this.cols[c].add(add);
+                final BigInteger[] from = rows.get(r).cols;
+                if (from.length != width)
+                {
+                    throw new SecretShareException("Need exactly one row per unknown: " + size +
+                                                   " rows, but " + from.length + " columns");
+                }
+                final BigInteger[] to = matrix[r];
+                for (int c = 0; c < width; c++)
+                {
+                    to[c] = (field != null) ? field.reduce(from[c]) : from[c];
+                }
             }
-            return ret;
+            return matrix;
         }
-        public Row add(final Row add)
-        {
-            Row ret = new Row(this);
 
-            for (int c = 0, n = cols.length; c < n; c++)
+        public void clear(final int size)
+        {
+            for (int r = 0; r < size; r++)
             {
-                ret.cols[c] = this.cols[c].add(add.getColumn(c));
+                Arrays.fill(matrix[r], null);
             }
-            return ret;
-        }
-
-        public Row negate()
-        {
-            return multiplyConstant(BigInteger.valueOf(-1));
         }
     }
 
 
-
     /**
      *
      * @param array to fill with values
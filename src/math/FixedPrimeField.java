@@ -0,0 +1,37 @@
+package math;
+
+import java.math.BigInteger;
+
+/**
+ * A GF(p) implementation specialised for one fixed prime, that does the two hot loops
+ *   of sharing without BigInteger arithmetic: evaluating the polynomial at every x (split),
+ *   and Lagrange interpolation at zero (combine).
+ *
+ * Values go in and come out as BigInteger; only the arithmetic in between is specialised.
+ *
+ * Implementations are immutable and can be shared between threads.
+ */
+public interface FixedPrimeField
+{
+    /**
+     * @return p
+     */
+    BigInteger getModulus();
+
+    /**
+     * @param coefficients of the polynomial, [0] is the constant term; any values
+     * @param xs where to evaluate it; any values
+     * @return f(x) mod p for every x, same order as xs
+     */
+    BigInteger[] evaluate(BigInteger[] coefficients,
+                          BigInteger[] xs);
+
+    /**
+     * @param xarray the "X" values, must all be different mod p
+     * @param fofxarray the "f(x)" values
+     * @return f(0) mod p of the polynomial through the points
+     * @throws exceptions.SecretShareException if two x values are the same mod p
+     */
+    BigInteger interpolateAtZero(BigInteger[] xarray,
+                                 BigInteger[] fofxarray);
+}
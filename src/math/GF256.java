@@ -0,0 +1,130 @@
+package math;
+
+import exceptions.SecretShareException;
+
+/**
+ * Arithmetic in the field GF(2^8), with the AES polynomial x^8 + x^4 + x^3 + x + 1.
+ *
+ * Adding and subtracting are both XOR.
+ * Multiplying and dividing go through log/antilog tables of the generator 3.
+ *
+ * Bulk loops should not call mul() per byte: multiplicationRow(c) gives the
+ *   256-entry table of c*v for every v, so multiplying by a fixed c is one array lookup.
+ *
+ * Values are ints in the range 0-255.
+ */
+public final class GF256
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    private static final int POLYNOMIAL = 0x11B;
+    private static final int GENERATOR = 3;
+
+    // EXP is doubled in length so that EXP[LOG[a] + LOG[b]] needs no "mod 255"
+    private static final int[] EXP = new int[510];
+    private static final int[] LOG = new int[256];
+
+    static
+    {
+        int value = 1;
+        for (int i = 0; i < 255; i++)
+        {
+            EXP[i] = value;
+            EXP[i + 255] = value;
+            LOG[value] = i;
+            value = multiplySlowly(value, GENERATOR);
+        }
+        if (value != 1)
+        {
+            throw new SecretShareException("Programmer error, " + GENERATOR + " does not generate GF(256)");
+        }
+    }
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    public static int add(final int a,
+                          final int b)
+    {
+        return a ^ b;
+    }
+
+    public static int mul(final int a,
+                          final int b)
+    {
+        if ((a == 0) || (b == 0))
+        {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    /**
+     * @throws SecretShareException if b is zero
+     */
+    public static int div(final int a,
+                          final int b)
+    {
+        if (b == 0)
+        {
+            throw new SecretShareException("Division by zero in GF(256)");
+        }
+        if (a == 0)
+        {
+            return 0;
+        }
+        return EXP[LOG[a] + 255 - LOG[b]];
+    }
+
+    /**
+     * @return table where table[v] = c*v, for v 0-255
+     */
+    public static byte[] multiplicationRow(final int c)
+    {
+        byte[] ret = new byte[256];
+        if (c != 0)
+        {
+            final int logC = LOG[c];
+            for (int v = 1; v < 256; v++)
+            {
+                ret[v] = (byte) EXP[LOG[v] + logC];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Carry-less "Russian peasant" multiply; only used to build the tables.
+     */
+    private static int multiplySlowly(int a,
+                                      int b)
+    {
+        int ret = 0;
+        while (b != 0)
+        {
+            if ((b & 1) != 0)
+            {
+                ret ^= a;
+            }
+            a <<= 1;
+            if ((a & 0x100) != 0)
+            {
+                a ^= POLYNOMIAL;
+            }
+            b >>= 1;
+        }
+        return ret;
+    }
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private GF256()
+    {
+        // no instances
+    }
+}
@@ -0,0 +1,228 @@
+package math;
+
+import exceptions.SecretShareException;
+
+/**
+ * Rabin's Information Dispersal Algorithm over GF(2^8).
+ *
+ * The data is cut into groups of k bytes; each group is the coefficients of a polynomial
+ *   of degree k-1, and piece x holds that polynomial at x, one byte per group.
+ * So every piece is ceil(length/k) bytes, and any k of the n pieces give the data back
+ *   by inverting the k by k Vandermonde matrix of their x values, once.
+ *
+ * Unlike Shamir's scheme this is not secret: each piece tells a lot about the data.
+ *   It only spreads data that is already protected (e.g. encrypted) over n places
+ *   with n/k times the storage instead of n times.
+ *
+ * Up to 255 pieces, with x = 1 to n.
+ */
+public final class InformationDispersal
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    public static final int MAXIMUM_PIECES = 255;
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @param length of the data
+     * @param k number of pieces needed to recover
+     * @return bytes in every piece
+     */
+    public static int pieceLength(final int length,
+                                  final int k)
+    {
+        return (length + k - 1) / k;
+    }
+
+    /**
+     * @param data to disperse
+     * @param n number of pieces, 1 to 255
+     * @param k number of pieces needed to recover, 1 to n
+     * @return n pieces, piece [i] is for x = i+1
+     */
+    public static byte[][] disperse(final byte[] data,
+                                    final int n,
+                                    final int k)
+    {
+        if ((n < 1) || (n > MAXIMUM_PIECES))
+        {
+            throw new SecretShareException("n must be 1 to " + MAXIMUM_PIECES + ", was " + n);
+        }
+        if ((k < 1) || (k > n))
+        {
+            throw new SecretShareException("k must be 1 to n=" + n + ", was " + k);
+        }
+        final int groups = pieceLength(data.length, k);
+        // the last group is padded with zeros
+        byte[] padded = data;
+        if (groups * k != data.length)
+        {
+            padded = new byte[groups * k];
+            System.arraycopy(data, 0, padded, 0, data.length);
+        }
+
+        byte[][] ret = new byte[n][groups];
+        for (int i = 0; i < n; i++)
+        {
+            final byte[] multiplyByX = GF256.multiplicationRow(i + 1);
+            final byte[] piece = ret[i];
+            for (int g = 0, base = 0; g < groups; g++, base += k)
+            {
+                // Horner: data[base+k-1] is the highest coefficient
+                int value = padded[base + k - 1] & 0xFF;
+                for (int t = k - 2; t >= 0; t--)
+                {
+                    value = (multiplyByX[value] ^ padded[base + t]) & 0xFF;
+                }
+                piece[g] = (byte) value;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param xs the x values of the pieces, at least k, all different; only the first k are used
+     * @param pieces the pieces, same order as xs, all the same length
+     * @param k number of pieces needed to recover
+     * @param length of the original data
+     * @return the data
+     * @throws SecretShareException if the pieces do not match up
+     */
+    public static byte[] recover(final int[] xs,
+                                 final byte[][] pieces,
+                                 final int k,
+                                 final int length)
+    {
+        if ((xs.length < k) || (pieces.length < k))
+        {
+            throw new SecretShareException("Must have " + k + " pieces to recover.  Only provided " +
+                                           Math.min(xs.length, pieces.length));
+        }
+        final int groups = pieceLength(length, k);
+        for (int r = 0; r < k; r++)
+        {
+            if ((xs[r] < 1) || (xs[r] > MAXIMUM_PIECES))
+            {
+                throw new SecretShareException("x must be 1 to " + MAXIMUM_PIECES + ", was " + xs[r]);
+            }
+            if (pieces[r].length != groups)
+            {
+                throw new SecretShareException("Piece for x=" + xs[r] + " has " + pieces[r].length +
+                                               " bytes, expected " + groups);
+            }
+        }
+
+        // inverse[t][r]: coefficient t is the sum over r of inverse[t][r] * piece r
+        final int[][] inverse = invertVandermonde(xs, k);
+        byte[][][] multiplyBy = new byte[k][k][];
+        for (int t = 0; t < k; t++)
+        {
+            for (int r = 0; r < k; r++)
+            {
+                multiplyBy[t][r] = GF256.multiplicationRow(inverse[t][r]);
+            }
+        }
+
+        byte[] padded = new byte[groups * k];
+        for (int t = 0; t < k; t++)
+        {
+            for (int r = 0; r < k; r++)
+            {
+                final byte[] table = multiplyBy[t][r];
+                final byte[] piece = pieces[r];
+                for (int g = 0, at = t; g < groups; g++, at += k)
+                {
+                    padded[at] ^= table[piece[g] & 0xFF];
+                }
+            }
+        }
+
+        if (padded.length == length)
+        {
+            return padded;
+        }
+        byte[] ret = new byte[length];
+        System.arraycopy(padded, 0, ret, 0, length);
+        return ret;
+    }
+
+    /**
+     * Gauss-Jordan inverse in GF(256) of V[r][t] = xs[r]^t, r and t 0 to k-1.
+     *
+     * @throws SecretShareException if two x values are the same
+     */
+    private static int[][] invertVandermonde(final int[] xs,
+                                             final int k)
+    {
+        // [V | I] reduced to [I | V^-1]
+        int[][] matrix = new int[k][2 * k];
+        for (int r = 0; r < k; r++)
+        {
+            int power = 1;
+            for (int t = 0; t < k; t++)
+            {
+                matrix[r][t] = power;
+                power = GF256.mul(power, xs[r]);
+            }
+            matrix[r][k + r] = 1;
+        }
+
+        for (int column = 0; column < k; column++)
+        {
+            int found = column;
+            while ((found < k) && (matrix[found][column] == 0))
+            {
+                found++;
+            }
+            if (found == k)
+            {
+                throw new SecretShareException("Pieces have duplicate x values");
+            }
+            int[] swap = matrix[found];
+            matrix[found] = matrix[column];
+            matrix[column] = swap;
+
+            final int[] work = matrix[column];
+            final int pivot = work[column];
+            for (int c = 0; c < 2 * k; c++)
+            {
+                work[c] = GF256.div(work[c], pivot);
+            }
+            for (int r = 0; r < k; r++)
+            {
+                final int mult = matrix[r][column];
+                if ((r == column) || (mult == 0))
+                {
+                    continue;
+                }
+                final int[] fix = matrix[r];
+                for (int c = 0; c < 2 * k; c++)
+                {
+                    fix[c] ^= GF256.mul(mult, work[c]);
+                }
+            }
+        }
+
+        // the inverse maps the pieces (rows of V) to the coefficients
+        int[][] ret = new int[k][k];
+        for (int t = 0; t < k; t++)
+        {
+            System.arraycopy(matrix[t], k, ret[t], 0, k);
+        }
+        return ret;
+    }
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private InformationDispersal()
+    {
+        // no instances
+    }
+}
@@ -0,0 +1,379 @@
+package math;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import exceptions.SecretShareException;
+
+/**
+ * Recovers f(0) of a polynomial from k points (x, f(x)) by Lagrange interpolation:
+ *
+ *    f(0) = sum over i of  f(x_i) * product over j != i of  x_j / (x_j - x_i)
+ *
+ * This is all that "combine" needs from the polynomial, so it is a lot cheaper
+ *   than solving the whole Vandermonde system with EasyLinearEquation:
+ *   O(k^2) multiplications of small numbers, plus k multiplications with the shares.
+ *
+ * With a prime modulus the arithmetic is done in GF(p) through a ModularField,
+ *   and all k denominators are inverted together with a single inverse().
+ * Without a modulus the sum is built over a common denominator
+ *   and divided exactly at the end.
+ *
+ * Subset does the same in GF(p) for k out of n points, and can swap one point
+ *   for another in O(k) instead of starting over.
+ */
+public final class LagrangeInterpolation
+{
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @param xarray the "X" values, must all be different
+     * @param fofxarray the "f(x)" values
+     * @param modulus prime modulus, or null to compute over the integers
+     * @return f(0), reduced mod modulus if modulus is not null
+     * @throws SecretShareException if the points do not describe an integer polynomial
+     */
+    public static BigInteger interpolateAtZero(final BigInteger[] xarray,
+                                               final BigInteger[] fofxarray,
+                                               final BigInteger modulus)
+    {
+        return interpolateAtZero(xarray, fofxarray,
+                                 (modulus != null) ? new ModularField(modulus) : null);
+    }
+
+    /**
+     * @param xarray the "X" values, must all be different
+     * @param fofxarray the "f(x)" values
+     * @param field GF(p) to compute in, or null to compute over the integers
+     * @return f(0), in [0, p) if field is not null
+     * @throws SecretShareException if the points do not describe an integer polynomial
+     */
+    public static BigInteger interpolateAtZero(final BigInteger[] xarray,
+                                               final BigInteger[] fofxarray,
+                                               final ModularField field)
+    {
+        if (xarray.length != fofxarray.length)
+        {
+            throw new SecretShareException("Unequal length arrays are not allowed");
+        }
+        if (xarray.length == 0)
+        {
+            throw new SecretShareException("Need at least one point");
+        }
+        if (field != null)
+        {
+            return interpolateAtZeroField(xarray, fofxarray, field);
+        }
+        else
+        {
+            return interpolateAtZeroIntegers(xarray, fofxarray);
+        }
+    }
+
+    /**
+     * @return the numerators  product over j != i of x_j, for every i
+     */
+    private static BigInteger[] numerators(final BigInteger[] xarray,
+                                           final ModularField field)
+    {
+        final int k = xarray.length;
+        BigInteger[] ret = new BigInteger[k];
+
+        // prefix products first, then multiply in the suffix products from the right
+        BigInteger running = BigInteger.ONE;
+        for (int i = 0; i < k; i++)
+        {
+            ret[i] = running;
+            running = reduce(running.multiply(xarray[i]), field);
+        }
+        running = BigInteger.ONE;
+        for (int i = k - 1; i >= 0; i--)
+        {
+            ret[i] = reduce(ret[i].multiply(running), field);
+            running = reduce(running.multiply(xarray[i]), field);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the denominators  product over j != i of (x_j - x_i), for every i
+     */
+    private static BigInteger[] denominators(final BigInteger[] xarray,
+                                             final ModularField field)
+    {
+        final int k = xarray.length;
+        BigInteger[] ret = new BigInteger[k];
+        for (int i = 0; i < k; i++)
+        {
+            BigInteger denominator = BigInteger.ONE;
+            for (int j = 0; j < k; j++)
+            {
+                if (j != i)
+                {
+                    BigInteger diff = xarray[j].subtract(xarray[i]);
+                    if (diff.signum() == 0)
+                    {
+                        throw new SecretShareException("Duplicate x value " + xarray[i]);
+                    }
+                    denominator = reduce(denominator.multiply(diff), field);
+                }
+            }
+            ret[i] = denominator;
+        }
+        return ret;
+    }
+
+    private static BigInteger interpolateAtZeroField(final BigInteger[] xarray,
+                                                     final BigInteger[] fofxarray,
+                                                     final ModularField field)
+    {
+        final int k = xarray.length;
+        BigInteger[] numerators = numerators(xarray, field);
+        BigInteger[] inverses = field.inverseAll(denominators(xarray, field));
+
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 0; i < k; i++)
+        {
+            BigInteger weight = field.mul(numerators[i], inverses[i]);
+            sum = field.add(sum, field.mul(field.reduce(fofxarray[i]), weight));
+        }
+        return sum;
+    }
+
+    private static BigInteger interpolateAtZeroIntegers(final BigInteger[] xarray,
+                                                        final BigInteger[] fofxarray)
+    {
+        final int k = xarray.length;
+        BigInteger[] numerators = numerators(xarray, null);
+        BigInteger[] denominators = denominators(xarray, null);
+
+        // common denominator: lcm of all the denominators
+        BigInteger common = BigInteger.ONE;
+        for (BigInteger denominator : denominators)
+        {
+            BigInteger d = denominator.abs();
+            common = common.multiply(d.divide(common.gcd(d)));
+        }
+
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 0; i < k; i++)
+        {
+            BigInteger weight = numerators[i].multiply(common.divide(denominators[i]));
+            sum = sum.add(fofxarray[i].multiply(weight));
+        }
+
+        BigInteger[] quotientAndRemainder = sum.divideAndRemainder(common);
+        if (quotientAndRemainder[1].signum() != 0)
+        {
+            throw new SecretShareException("Shares do not lie on a polynomial with integer coefficients");
+        }
+        return quotientAndRemainder[0];
+    }
+
+    private static BigInteger reduce(final BigInteger value,
+                                     final ModularField field)
+    {
+        return (field != null) ? field.reduce(value) : value;
+    }
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private LagrangeInterpolation()
+    {
+        // no instances
+    }
+
+    /**
+     * f(0) in GF(p) through a subset of k out of n points, where the subset can change
+     *   one point at a time (see RevolvingDoorCombinations).
+     *
+     * The weight of point i in subset S is  w_i = product over j in S, j != i of  x_j / (x_j - x_i).
+     * When point a leaves and point b enters, every other weight changes by the factor
+     *   x_b * (x_a - x_i)  /  (x_a * (x_b - x_i))
+     *   and only the new point's weight is computed from scratch, so a swap is O(k).
+     * All the inverses that can ever be needed, 1/(x_j - x_i) and 1/x_i, are computed
+     *   up front with a single inverse().
+     *
+     * Not thread-safe.
+     */
+    public static final class Subset
+    {
+        private final ModularField field;
+        private final BigInteger[] xs;
+        private final BigInteger[] fofxs;
+        // inverseDifference[i][j] = 1 / (x_j - x_i), for i != j
+        private final BigInteger[][] inverseDifference;
+        private final BigInteger[] inverseX;
+
+        // the points in the subset, and their weights, by slot
+        private final int[] members;
+        private final BigInteger[] weights;
+        // slot of each point, -1 if it is not in the subset
+        private final int[] slotOf;
+
+        /**
+         * @param xarray all the "X" values, must be different and non-zero mod p
+         * @param fofxarray all the "f(x)" values
+         * @param inModulus prime modulus
+         * @param initial indexes of the k points in the first subset
+         * @throws SecretShareException if an x value is zero or repeated mod p
+         */
+        public Subset(final BigInteger[] xarray,
+                      final BigInteger[] fofxarray,
+                      final BigInteger inModulus,
+                      final int[] initial)
+        {
+            this(xarray, fofxarray, createField(inModulus), initial);
+        }
+
+        /**
+         * @param xarray all the "X" values, must be different and non-zero mod p
+         * @param fofxarray all the "f(x)" values
+         * @param inField GF(p) to compute in
+         * @param initial indexes of the k points in the first subset
+         * @throws SecretShareException if an x value is zero or repeated mod p
+         */
+        public Subset(final BigInteger[] xarray,
+                      final BigInteger[] fofxarray,
+                      final ModularField inField,
+                      final int[] initial)
+        {
+            if (xarray.length != fofxarray.length)
+            {
+                throw new SecretShareException("Unequal length arrays are not allowed");
+            }
+            if (inField == null)
+            {
+                throw new SecretShareException("field cannot be null");
+            }
+            final int n = xarray.length;
+            field = inField;
+            xs = new BigInteger[n];
+            fofxs = new BigInteger[n];
+            for (int i = 0; i < n; i++)
+            {
+                xs[i] = field.reduce(xarray[i]);
+                fofxs[i] = field.reduce(fofxarray[i]);
+                if (xs[i].signum() == 0)
+                {
+                    throw new SecretShareException("x value " + xarray[i] + " is zero mod the modulus");
+                }
+            }
+
+            // invert all differences (one per pair) and all x values together
+            BigInteger[] values = new BigInteger[((n * (n - 1)) / 2) + n];
+            int next = 0;
+            for (int i = 0; i < n; i++)
+            {
+                for (int j = i + 1; j < n; j++)
+                {
+                    values[next++] = field.subtract(xs[j], xs[i]);
+                }
+                values[next++] = xs[i];
+            }
+            BigInteger[] inverses = field.inverseAll(values);
+            inverseDifference = new BigInteger[n][n];
+            inverseX = new BigInteger[n];
+            next = 0;
+            for (int i = 0; i < n; i++)
+            {
+                for (int j = i + 1; j < n; j++)
+                {
+                    inverseDifference[i][j] = inverses[next++];
+                    inverseDifference[j][i] = field.negate(inverseDifference[i][j]);
+                }
+                inverseX[i] = inverses[next++];
+            }
+
+            members = initial.clone();
+            weights = new BigInteger[members.length];
+            slotOf = new int[n];
+            Arrays.fill(slotOf, -1);
+            for (int slot = 0; slot < members.length; slot++)
+            {
+                if (slotOf[members[slot]] != -1)
+                {
+                    throw new SecretShareException("Point " + members[slot] + " is in the subset twice");
+                }
+                slotOf[members[slot]] = slot;
+            }
+            for (int slot = 0; slot < members.length; slot++)
+            {
+                weights[slot] = weightOf(members[slot]);
+            }
+        }
+
+        /**
+         * Replace one point of the subset with another.
+         *
+         * @param leaving index of a point in the subset
+         * @param entering index of a point not in the subset
+         */
+        public void swap(final int leaving,
+                         final int entering)
+        {
+            final int slot = slotOf[leaving];
+            if ((slot == -1) || (slotOf[entering] != -1))
+            {
+                throw new SecretShareException("Cannot swap " + leaving + " for " + entering);
+            }
+            final BigInteger xa = xs[leaving];
+            final BigInteger xb = xs[entering];
+            // x_b / x_a is the same for every remaining weight
+            final BigInteger ratio = field.mul(xb, inverseX[leaving]);
+            for (int s = 0; s < members.length; s++)
+            {
+                if (s != slot)
+                {
+                    final int i = members[s];
+                    BigInteger factor = field.mul(field.subtract(xa, xs[i]), inverseDifference[i][entering]);
+                    weights[s] = field.mul(field.mul(weights[s], factor), ratio);
+                }
+            }
+
+            slotOf[leaving] = -1;
+            slotOf[entering] = slot;
+            members[slot] = entering;
+            weights[slot] = weightOf(entering);
+        }
+
+        /**
+         * @return f(0) through the points of the current subset, O(k)
+         */
+        public BigInteger interpolateAtZero()
+        {
+            BigInteger sum = BigInteger.ZERO;
+            for (int s = 0; s < members.length; s++)
+            {
+                sum = field.add(sum, field.mul(fofxs[members[s]], weights[s]));
+            }
+            return sum;
+        }
+
+        private BigInteger weightOf(final int i)
+        {
+            BigInteger weight = BigInteger.ONE;
+            for (int j : members)
+            {
+                if (j != i)
+                {
+                    weight = field.mul(field.mul(weight, xs[j]), inverseDifference[i][j]);
+                }
+            }
+            return weight;
+        }
+
+        private static ModularField createField(final BigInteger modulus)
+        {
+            if (modulus == null)
+            {
+                throw new SecretShareException("modulus cannot be null");
+            }
+            return new ModularField(modulus);
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package math;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import exceptions.SecretShareException;
+
+/**
+ * GF(p) for an odd prime p of a few hundred bits, with every value held in a long[]
+ *   of limbs (least significant limb first) instead of a BigInteger.
+ *
+ * Multiplication is Montgomery's, interleaved word by word with the reduction
+ *   ("CIOS", Koc, Acar and Kaliski, "Analyzing and Comparing Montgomery Multiplication
+ *   Algorithms", 1996), so values are kept in Montgomery form  a*R mod p,  R = 2^(32*limbs).
+ *   Adding and subtracting are the same in Montgomery form.
+ *
+ * Each long holds a 32-bit limb: then a limb product plus two limbs still fits in one
+ *   long, so the inner loop is one multiply, one add and one shift.  Full 64-bit limbs
+ *   would need the high half of a 64 by 64 bit product, which without Math.multiplyHigh()
+ *   (Java 9) costs four multiplies and carry detection, and was measured to be slower.
+ *
+ * The arithmetic methods write into caller-provided arrays and a caller-provided scratch
+ *   array (see newElement() and newScratch()) and allocate nothing;
+ *   only the conversions from and to BigInteger, and inverse(), do.
+ *
+ * Immutable, so it can be shared between threads; the scratch arrays cannot.
+ */
+public final class LongLimbField
+    implements FixedPrimeField
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    private static final long MASK32 = 0xFFFFFFFFL;
+
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final BigInteger modulus;
+    private final int limbs;
+    private final long[] p;
+    // -1/p mod 2^32
+    private final long pInverseNegated;
+    // R^2 mod p, not in Montgomery form: multiplying by it converts into Montgomery form
+    private final long[] rSquared;
+    // 1 in Montgomery form, R mod p
+    private final long[] one;
+    // 1 not in Montgomery form: multiplying by it converts out of Montgomery form
+    private final long[] plainOne;
+    // 2^32 in Montgomery form
+    private final long[] word;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inModulus an odd prime, bigger than 2
+     * @throws SecretShareException if the modulus is not odd and bigger than 2
+     */
+    public LongLimbField(final BigInteger inModulus)
+    {
+        if ((inModulus == null) ||
+            (inModulus.compareTo(BigInteger.valueOf(2)) <= 0) ||
+            (! inModulus.testBit(0)))
+        {
+            throw new SecretShareException("modulus must be odd and bigger than 2, was " + inModulus);
+        }
+        modulus = inModulus;
+        limbs = (inModulus.bitLength() + 31) / 32;
+        p = toLimbs(inModulus);
+
+        final BigInteger twoTo32 = BigInteger.ONE.shiftLeft(32);
+        pInverseNegated = inModulus.modInverse(twoTo32).negate().mod(twoTo32).longValue();
+
+        final BigInteger r = BigInteger.ONE.shiftLeft(32 * limbs);
+        rSquared = toLimbs(r.multiply(r).mod(inModulus));
+        one = toLimbs(r.mod(inModulus));
+        plainOne = toLimbs(BigInteger.ONE);
+        word = toLimbs(BigInteger.ONE.shiftLeft(32).multiply(r).mod(inModulus));
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    @Override
+    public BigInteger getModulus()
+    {
+        return modulus;
+    }
+
+    /**
+     * @return number of 32-bit limbs per value
+     */
+    public int getLimbs()
+    {
+        return limbs;
+    }
+
+    /**
+     * @return a new value, zero
+     */
+    public long[] newElement()
+    {
+        return new long[limbs];
+    }
+
+    /**
+     * @return a new scratch array for mul() and the methods that use it
+     */
+    public long[] newScratch()
+    {
+        return new long[limbs + 2];
+    }
+
+    /**
+     * @param value any value
+     * @param out value mod p, not in Montgomery form
+     */
+    public void toPlain(final BigInteger value,
+                        final long[] out)
+    {
+        BigInteger reduced = value;
+        if ((value.signum() < 0) || (value.compareTo(modulus) >= 0))
+        {
+            reduced = value.mod(modulus);
+        }
+        putLimbs(reduced, out);
+    }
+
+    /**
+     * @param a not in Montgomery form
+     * @return the value, in [0, p)
+     */
+    public BigInteger fromPlain(final long[] a)
+    {
+        byte[] bytes = new byte[limbs * 4];
+        for (int i = 0; i < limbs; i++)
+        {
+            final long limb = a[i];
+            for (int b = 0; b < 4; b++)
+            {
+                bytes[bytes.length - 1 - (i * 4) - b] = (byte) (limb >>> (8 * b));
+            }
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * @param value any value
+     * @param out value mod p, in Montgomery form
+     */
+    public void toMontgomery(final BigInteger value,
+                             final long[] out,
+                             final long[] scratch)
+    {
+        toPlain(value, out);
+        mul(out, rSquared, out, scratch);
+    }
+
+    /**
+     * @param a in Montgomery form
+     * @return the value it stands for, in [0, p)
+     */
+    public BigInteger fromMontgomery(final long[] a,
+                                     final long[] scratch)
+    {
+        long[] plain = newElement();
+        mul(a, plainOne, plain, scratch);
+        return fromPlain(plain);
+    }
+
+    /**
+     * @param out set to 1 in Montgomery form
+     */
+    public void setOne(final long[] out)
+    {
+        System.arraycopy(one, 0, out, 0, limbs);
+    }
+
+    public boolean isZero(final long[] a)
+    {
+        for (int i = 0; i < limbs; i++)
+        {
+            if (a[i] != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * out = a * b / R mod p; with a and b in Montgomery form, out is their product in Montgomery form.
+     *   out may be the same array as a or b.
+     *
+     * @param scratch from newScratch()
+     */
+    public void mul(final long[] a,
+                    final long[] b,
+                    final long[] out,
+                    final long[] scratch)
+    {
+        final int n = limbs;
+        final long[] t = scratch;
+        Arrays.fill(t, 0L);
+        for (int i = 0; i < n; i++)
+        {
+            // t += a * b[i]; every term fits in 64 unsigned bits:  (2^32-1)^2 + 2 * (2^32-1) = 2^64-1
+            final long bi = b[i];
+            long carry = 0;
+            for (int j = 0; j < n; j++)
+            {
+                final long sum = t[j] + (a[j] * bi) + carry;
+                t[j] = sum & MASK32;
+                carry = sum >>> 32;
+            }
+            long sum = t[n] + carry;
+            t[n] = sum & MASK32;
+            t[n + 1] = sum >>> 32;
+
+            // t = (t + m * p) / 2^32, where m makes the lowest limb zero
+            final long m = (t[0] * pInverseNegated) & MASK32;
+            carry = (t[0] + (m * p[0])) >>> 32;
+            for (int j = 1; j < n; j++)
+            {
+                sum = t[j] + (m * p[j]) + carry;
+                t[j - 1] = sum & MASK32;
+                carry = sum >>> 32;
+            }
+            sum = t[n] + carry;
+            t[n - 1] = sum & MASK32;
+            t[n] = t[n + 1] + (sum >>> 32);
+        }
+
+        // t < 2p
+        if ((t[n] != 0) || (! lessThan(t, p)))
+        {
+            subtractLimbs(t, p, t);
+        }
+        System.arraycopy(t, 0, out, 0, n);
+    }
+
+    /**
+     * out = a * x / 2^32 mod p: one word of Montgomery multiplication, about limbs times
+     *   cheaper than mul().  out may be the same array as a.
+     *
+     * @param x in [0, 2^32)
+     * @param scratch from newScratch()
+     */
+    public void mulWord(final long[] a,
+                        final long x,
+                        final long[] out,
+                        final long[] scratch)
+    {
+        final int n = limbs;
+        final long[] t = scratch;
+        long carry = 0;
+        for (int j = 0; j < n; j++)
+        {
+            final long sum = (a[j] * x) + carry;
+            t[j] = sum & MASK32;
+            carry = sum >>> 32;
+        }
+        t[n] = carry;
+
+        final long m = (t[0] * pInverseNegated) & MASK32;
+        carry = (t[0] + (m * p[0])) >>> 32;
+        for (int j = 1; j < n; j++)
+        {
+            final long sum = t[j] + (m * p[j]) + carry;
+            t[j - 1] = sum & MASK32;
+            carry = sum >>> 32;
+        }
+        final long sum = t[n] + carry;
+        t[n - 1] = sum & MASK32;
+        t[n] = sum >>> 32;
+
+        // t < 2p
+        if ((t[n] != 0) || (! lessThan(t, p)))
+        {
+            subtractLimbs(t, p, t);
+        }
+        System.arraycopy(t, 0, out, 0, n);
+    }
+
+    /**
+     * out = a + b mod p; out may be the same array as a or b.
+     */
+    public void add(final long[] a,
+                    final long[] b,
+                    final long[] out)
+    {
+        long carry = 0;
+        for (int i = 0; i < limbs; i++)
+        {
+            final long sum = a[i] + b[i] + carry;
+            out[i] = sum & MASK32;
+            carry = sum >>> 32;
+        }
+        if ((carry != 0) || (! lessThan(out, p)))
+        {
+            subtractLimbs(out, p, out);
+        }
+    }
+
+    /**
+     * out = a - b mod p; out may be the same array as a or b.
+     */
+    public void subtract(final long[] a,
+                         final long[] b,
+                         final long[] out)
+    {
+        if (subtractLimbs(a, b, out))
+        {
+            // went below zero: add p back, the carry out of the top limb cancels the borrow
+            long carry = 0;
+            for (int i = 0; i < limbs; i++)
+            {
+                final long sum = out[i] + p[i] + carry;
+                out[i] = sum & MASK32;
+                carry = sum >>> 32;
+            }
+        }
+    }
+
+    /**
+     * out = 1/a mod p; out may be the same array as a.
+     *
+     * This goes through one BigInteger.modInverse(): that is several times faster than
+     *   a^(p-2) with mul(), and the callers only need one inverse per batch anyway.
+     *
+     * @throws SecretShareException if a is zero
+     */
+    public void inverse(final long[] a,
+                        final long[] out,
+                        final long[] scratch)
+    {
+        if (isZero(a))
+        {
+            throw new SecretShareException("No inverse of zero");
+        }
+        toMontgomery(fromMontgomery(a, scratch).modInverse(modulus), out, scratch);
+    }
+
+    /**
+     * Horner's rule.  If every x fits in a word, each step is one mulWord(): that divides
+     *   by 2^32 every time, so coefficient j is multiplied by 2^(32*j) up front to cancel it.
+     *   Otherwise only the xs are converted to Montgomery form: a plain value times a
+     *   Montgomery one gives a plain value, so the coefficients stay plain.
+     */
+    @Override
+    public BigInteger[] evaluate(final BigInteger[] coefficients,
+                                 final BigInteger[] xs)
+    {
+        final long[] scratch = newScratch();
+        final boolean wordSized = areWordSized(xs);
+        final long[] scale = newElement();
+        setOne(scale);
+        final long[][] c = new long[coefficients.length][];
+        for (int i = 0; i < c.length; i++)
+        {
+            c[i] = newElement();
+            toPlain(coefficients[i], c[i]);
+            if (wordSized)
+            {
+                mul(c[i], scale, c[i], scratch);
+                mul(scale, word, scale, scratch);
+            }
+        }
+
+        final long[] x = newElement();
+        final long[] value = newElement();
+        BigInteger[] ret = new BigInteger[xs.length];
+        for (int i = 0; i < xs.length; i++)
+        {
+            System.arraycopy(c[c.length - 1], 0, value, 0, limbs);
+            if (wordSized)
+            {
+                final long smallX = xs[i].longValue();
+                for (int term = c.length - 2; term >= 0; term--)
+                {
+                    mulWord(value, smallX, value, scratch);
+                    add(value, c[term], value);
+                }
+            }
+            else
+            {
+                toMontgomery(xs[i], x, scratch);
+                for (int term = c.length - 2; term >= 0; term--)
+                {
+                    mul(value, x, value, scratch);
+                    add(value, c[term], value);
+                }
+            }
+            ret[i] = fromPlain(value);
+        }
+        return ret;
+    }
+
+    /**
+     * The weights are computed in Montgomery form; the f(x) values stay plain,
+     *   so the weighted sum comes out plain.
+     *
+     * If every x fits in a word, the numerator and denominator of each weight are built
+     *   with mulWord(), on the absolute differences with the sign kept aside:
+     *   both are k-1 words long, so the 2^(-32*(k-1)) that mulWord() leaves on each cancels.
+     */
+    @Override
+    public BigInteger interpolateAtZero(final BigInteger[] xarray,
+                                        final BigInteger[] fofxarray)
+    {
+        if (xarray.length != fofxarray.length)
+        {
+            throw new SecretShareException("Unequal length arrays are not allowed");
+        }
+        final int k = xarray.length;
+        if (k == 0)
+        {
+            throw new SecretShareException("Need at least one point");
+        }
+        final long[] scratch = newScratch();
+        final long[][] numerators = new long[k][];
+        final long[][] denominators = new long[k][];
+        final boolean[] negative = new boolean[k];
+        BigInteger exactDenominator = null;
+        if (areWordSized(xarray))
+        {
+            exactDenominator = wordSizedWeightParts(xarray, numerators, denominators, negative, scratch);
+        }
+        else
+        {
+            weightParts(xarray, numerators, denominators, scratch);
+        }
+
+        // prefix products of the denominators
+        final long[][] prefix = new long[k][];
+        final long[] running = newElement();
+        setOne(running);
+        for (int i = 0; i < k; i++)
+        {
+            prefix[i] = running.clone();
+            mul(running, denominators[i], running, scratch);
+        }
+
+        // one inversion for all the denominators, peeled off from the right
+        final long[] inverse = newElement();
+        if ((exactDenominator != null) && (exactDenominator.bitLength() < modulus.bitLength()))
+        {
+            // running is D * 2^(-32*k*(k-1)) for the product D of all the differences; when D
+            //   is small, inverting it directly is much cheaper than inverting a full-size value
+            toMontgomery(exactDenominator.modInverse(modulus).shiftLeft(32 * k * (k - 1)), inverse, scratch);
+        }
+        else
+        {
+            inverse(running, inverse, scratch);
+        }
+        final long[] weight = newElement();
+        final long[] y = newElement();
+        final long[] sum = newElement();
+        for (int i = k - 1; i >= 0; i--)
+        {
+            mul(inverse, prefix[i], weight, scratch);
+            mul(inverse, denominators[i], inverse, scratch);
+            mul(weight, numerators[i], weight, scratch);
+            toPlain(fofxarray[i], y);
+            mul(weight, y, weight, scratch);
+            if (negative[i])
+            {
+                subtract(sum, weight, sum);
+            }
+            else
+            {
+                add(sum, weight, sum);
+            }
+        }
+        return fromPlain(sum);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LongLimbField[" + limbs + " limbs, p=" + modulus + "]";
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    /**
+     * @return true if every value is in [0, 2^32)
+     */
+    private static boolean areWordSized(final BigInteger[] values)
+    {
+        for (BigInteger value : values)
+        {
+            if ((value.signum() < 0) || (value.bitLength() > 32))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * numerators[i] = product over j != i of x_j,  denominators[i] = product over j != i of (x_j - x_i),
+     *   in Montgomery form.
+     */
+    private void weightParts(final BigInteger[] xarray,
+                             final long[][] numerators,
+                             final long[][] denominators,
+                             final long[] scratch)
+    {
+        final int k = xarray.length;
+        final long[][] xs = new long[k][];
+        for (int i = 0; i < k; i++)
+        {
+            xs[i] = newElement();
+            toMontgomery(xarray[i], xs[i], scratch);
+        }
+
+        // numerators from prefix and suffix products
+        final long[] running = newElement();
+        setOne(running);
+        for (int i = 0; i < k; i++)
+        {
+            numerators[i] = running.clone();
+            mul(running, xs[i], running, scratch);
+        }
+        setOne(running);
+        for (int i = k - 1; i >= 0; i--)
+        {
+            mul(numerators[i], running, numerators[i], scratch);
+            mul(running, xs[i], running, scratch);
+        }
+
+        final long[] difference = newElement();
+        for (int i = 0; i < k; i++)
+        {
+            denominators[i] = newElement();
+            setOne(denominators[i]);
+            for (int j = 0; j < k; j++)
+            {
+                if (j != i)
+                {
+                    subtract(xs[j], xs[i], difference);
+                    if (isZero(difference))
+                    {
+                        throw new SecretShareException("x values are not distinct mod the modulus");
+                    }
+                    mul(denominators[i], difference, denominators[i], scratch);
+                }
+            }
+        }
+    }
+
+    /**
+     * As weightParts(), for xs in [0, 2^32), with mulWord(); both products of weight i
+     *   are off by the same power of 2^32, and negative[i] is set if the denominator is
+     *   really the negated value.
+     *
+     * @return the product of all the absolute differences, as an integer
+     */
+    private BigInteger wordSizedWeightParts(final BigInteger[] xarray,
+                                      final long[][] numerators,
+                                      final long[][] denominators,
+                                      final boolean[] negative,
+                                      final long[] scratch)
+    {
+        final int k = xarray.length;
+        final long[] xs = new long[k];
+        for (int i = 0; i < k; i++)
+        {
+            xs[i] = xarray[i].longValue();
+        }
+        // the product is built up in a long while it fits, to keep the BigInteger work small
+        BigInteger product = BigInteger.ONE;
+        long partialProduct = 1;
+        for (int i = 0; i < k; i++)
+        {
+            numerators[i] = newElement();
+            setOne(numerators[i]);
+            denominators[i] = newElement();
+            setOne(denominators[i]);
+            for (int j = 0; j < k; j++)
+            {
+                if (j != i)
+                {
+                    long difference = xs[j] - xs[i];
+                    if (difference == 0)
+                    {
+                        throw new SecretShareException("x values are not distinct mod the modulus");
+                    }
+                    if (difference < 0)
+                    {
+                        difference = -difference;
+                        negative[i] = ! negative[i];
+                    }
+                    mulWord(numerators[i], xs[j], numerators[i], scratch);
+                    mulWord(denominators[i], difference, denominators[i], scratch);
+
+                    if (bitLength(partialProduct) + bitLength(difference) > 63)
+                    {
+                        product = product.multiply(BigInteger.valueOf(partialProduct));
+                        partialProduct = 1;
+                    }
+                    partialProduct *= difference;
+                }
+            }
+        }
+        return product.multiply(BigInteger.valueOf(partialProduct));
+    }
+
+    private static int bitLength(final long value)
+    {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * @return true if a < b, comparing the first 'limbs' limbs
+     */
+    private boolean lessThan(final long[] a,
+                             final long[] b)
+    {
+        for (int i = limbs - 1; i >= 0; i--)
+        {
+            if (a[i] != b[i])
+            {
+                return a[i] < b[i];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * out = a - b over the first 'limbs' limbs, wrapping around.
+     *
+     * @return true if there was a borrow out of the top limb (a < b)
+     */
+    private boolean subtractLimbs(final long[] a,
+                                  final long[] b,
+                                  final long[] out)
+    {
+        long borrow = 0;
+        for (int i = 0; i < limbs; i++)
+        {
+            final long difference = a[i] - b[i] - borrow;
+            out[i] = difference & MASK32;
+            borrow = difference >>> 63;
+        }
+        return borrow != 0;
+    }
+
+    /**
+     * @param value in [0, 2^(32*limbs))
+     */
+    private long[] toLimbs(final BigInteger value)
+    {
+        long[] ret = new long[limbs];
+        putLimbs(value, ret);
+        return ret;
+    }
+
+    /**
+     * @param value in [0, 2^(32*limbs))
+     */
+    private void putLimbs(final BigInteger value,
+                          final long[] out)
+    {
+        Arrays.fill(out, 0L);
+        if (value.bitLength() < 64)
+        {
+            // the usual case for x values
+            final long small = value.longValue();
+            out[0] = small & MASK32;
+            if (limbs > 1)
+            {
+                out[1] = small >>> 32;
+            }
+            return;
+        }
+        final byte[] bytes = value.toByteArray();
+        // bytes is big-endian, and may have a leading sign byte of zero
+        for (int i = 0, at = bytes.length - 1; (i < limbs * 4) && (at >= 0); i++, at--)
+        {
+            out[i >>> 2] |= (bytes[at] & 0xFFL) << (8 * (i & 3));
+        }
+    }
+}
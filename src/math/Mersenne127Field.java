@@ -0,0 +1,471 @@
+package math;
+
+import java.math.BigInteger;
+
+import exceptions.SecretShareException;
+
+/**
+ * GF(p) for the Mersenne prime  p = 2^127 - 1,  with every value held in two longs:
+ *   value[LOW] is bits 0-63, value[HIGH] is bits 64-126.
+ *
+ * Reducing mod a Mersenne prime needs no division:  2^127 = 1 mod p,  so a 254-bit product
+ *   H * 2^127 + L  is just  H + L,  folded once more if that carries past bit 126.
+ *   The product itself is schoolbook over 32-bit halves, so each partial product fits a long.
+ *
+ * Inverses are Fermat's  a^(p-2),  with an addition chain of 128 squarings and 11 multiplies
+ *   [p-2 is 125 one bits, then 01], so no BigInteger is involved.
+ *
+ * Values in and out of the arithmetic methods are in [0, p).
+ *   The arithmetic methods write into caller-provided arrays and allocate nothing;
+ *   only the conversions from and to BigInteger do.
+ *
+ * Immutable (stateless), so it can be shared between threads.
+ */
+public final class Mersenne127Field
+    implements FixedPrimeField
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    public static final int LOW = 0;
+    public static final int HIGH = 1;
+
+    /** 2^127 - 1 */
+    public static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(127).subtract(BigInteger.ONE);
+
+    private static final long MASK32 = 0xFFFFFFFFL;
+    // the high word of p; the low word is all ones
+    private static final long HIGH_MASK = Long.MAX_VALUE;
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    @Override
+    public BigInteger getModulus()
+    {
+        return MODULUS;
+    }
+
+    /**
+     * @return a new value, zero
+     */
+    public long[] newElement()
+    {
+        return new long[2];
+    }
+
+    /**
+     * @param value any value
+     * @param out value mod p
+     */
+    public void fromBigInteger(final BigInteger value,
+                               final long[] out)
+    {
+        BigInteger reduced = value;
+        if ((value.signum() < 0) || (value.bitLength() > 127))
+        {
+            reduced = value.mod(MODULUS);
+        }
+        if (reduced.bitLength() < 64)
+        {
+            // the usual case for x values
+            set(0, reduced.longValue(), out);
+            return;
+        }
+        long low = 0;
+        long high = 0;
+        final byte[] bytes = reduced.toByteArray();
+        // bytes is big-endian, and may have a leading sign byte of zero
+        for (int i = 0, at = bytes.length - 1; (i < 16) && (at >= 0); i++, at--)
+        {
+            if (i < 8)
+            {
+                low |= (bytes[at] & 0xFFL) << (8 * i);
+            }
+            else
+            {
+                high |= (bytes[at] & 0xFFL) << (8 * (i - 8));
+            }
+        }
+        // 2^127 - 1 itself is 0
+        set(high, low, out);
+        canonicalize(out);
+    }
+
+    /**
+     * @param a in [0, p)
+     * @return the value
+     */
+    public BigInteger toBigInteger(final long[] a)
+    {
+        byte[] bytes = new byte[16];
+        for (int b = 0; b < 8; b++)
+        {
+            bytes[15 - b] = (byte) (a[LOW] >>> (8 * b));
+            bytes[7 - b] = (byte) (a[HIGH] >>> (8 * b));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    public void setOne(final long[] out)
+    {
+        set(0, 1, out);
+    }
+
+    public boolean isZero(final long[] a)
+    {
+        return (a[LOW] | a[HIGH]) == 0;
+    }
+
+    /**
+     * out = a + b mod p; out may be the same array as a or b.
+     */
+    public void add(final long[] a,
+                    final long[] b,
+                    final long[] out)
+    {
+        final long low = a[LOW] + b[LOW];
+        final long high = a[HIGH] + b[HIGH] + carry(low, a[LOW]);
+        // below 2^128, since both are below 2^127
+        fold(high, low, out);
+    }
+
+    /**
+     * out = a - b mod p; out may be the same array as a or b.
+     */
+    public void subtract(final long[] a,
+                         final long[] b,
+                         final long[] out)
+    {
+        // a + (p - b); p's low word is all ones, so p - b never borrows
+        final long negatedLow = ~b[LOW];
+        final long negatedHigh = HIGH_MASK - b[HIGH];
+        final long low = a[LOW] + negatedLow;
+        final long high = a[HIGH] + negatedHigh + carry(low, a[LOW]);
+        fold(high, low, out);
+    }
+
+    /**
+     * out = a * b mod p; out may be the same array as a or b.
+     */
+    public void mul(final long[] a,
+                    final long[] b,
+                    final long[] out)
+    {
+        final long x0 = a[LOW] & MASK32;
+        final long x1 = a[LOW] >>> 32;
+        final long x2 = a[HIGH] & MASK32;
+        final long x3 = a[HIGH] >>> 32;
+        final long y0 = b[LOW] & MASK32;
+        final long y1 = b[LOW] >>> 32;
+        final long y2 = b[HIGH] & MASK32;
+        final long y3 = b[HIGH] >>> 32;
+
+        // the 32-bit columns of the product; each sum of halves fits easily in a long
+        long p0 = x0 * y0;
+        long p1 = x0 * y1;
+        long p2 = x1 * y0;
+        final long w0 = p0 & MASK32;
+
+        long column = (p0 >>> 32) + (p1 & MASK32) + (p2 & MASK32);
+        final long w1 = column & MASK32;
+        long highHalves = (p1 >>> 32) + (p2 >>> 32);
+
+        p0 = x0 * y2;
+        p1 = x1 * y1;
+        p2 = x2 * y0;
+        column = (column >>> 32) + highHalves + (p0 & MASK32) + (p1 & MASK32) + (p2 & MASK32);
+        final long w2 = column & MASK32;
+        highHalves = (p0 >>> 32) + (p1 >>> 32) + (p2 >>> 32);
+
+        p0 = x0 * y3;
+        p1 = x1 * y2;
+        p2 = x2 * y1;
+        long p3 = x3 * y0;
+        column = (column >>> 32) + highHalves +
+                 (p0 & MASK32) + (p1 & MASK32) + (p2 & MASK32) + (p3 & MASK32);
+        final long w3 = column & MASK32;
+        highHalves = (p0 >>> 32) + (p1 >>> 32) + (p2 >>> 32) + (p3 >>> 32);
+
+        p0 = x1 * y3;
+        p1 = x2 * y2;
+        p2 = x3 * y1;
+        column = (column >>> 32) + highHalves + (p0 & MASK32) + (p1 & MASK32) + (p2 & MASK32);
+        final long w4 = column & MASK32;
+        highHalves = (p0 >>> 32) + (p1 >>> 32) + (p2 >>> 32);
+
+        p0 = x2 * y3;
+        p1 = x3 * y2;
+        column = (column >>> 32) + highHalves + (p0 & MASK32) + (p1 & MASK32);
+        final long w5 = column & MASK32;
+        highHalves = (p0 >>> 32) + (p1 >>> 32);
+
+        p0 = x3 * y3;
+        column = (column >>> 32) + highHalves + (p0 & MASK32);
+        final long w6 = column & MASK32;
+        // the product is below 2^254, so this fits in 30 bits
+        final long w7 = (column >>> 32) + (p0 >>> 32);
+
+        // product = H * 2^127 + L;  H + L  is the same mod p
+        final long l0 = w0 | (w1 << 32);
+        final long l1 = w2 | (w3 << 32);
+        final long h0 = w4 | (w5 << 32);
+        final long h1 = w6 | (w7 << 32);
+
+        final long bigLow = (h0 << 1) | (l1 >>> 63);
+        final long bigHigh = (h1 << 1) | (h0 >>> 63);
+        final long low = l0 + bigLow;
+        final long high = (l1 & HIGH_MASK) + bigHigh + carry(low, l0);
+        fold(high, low, out);
+    }
+
+    /**
+     * out = a * a mod p; out may be the same array as a.
+     */
+    public void square(final long[] a,
+                       final long[] out)
+    {
+        mul(a, a, out);
+    }
+
+    /**
+     * out = 1/a mod p; out may be the same array as a.
+     *
+     * @param scratch four values from newElement()
+     * @throws SecretShareException if a is zero
+     */
+    public void inverse(final long[] a,
+                        final long[] out,
+                        final long[][] scratch)
+    {
+        if (isZero(a))
+        {
+            throw new SecretShareException("No inverse of zero");
+        }
+        // t(n) = a^(2^n - 1),  t(m + n) = t(m)^(2^n) * t(n)
+        final long[] t2 = scratch[0];
+        final long[] t5 = scratch[1];
+        final long[] t = scratch[2];
+        final long[] previous = scratch[3];
+
+        // t(2), t(3), t(5)
+        square(a, t2);
+        mul(t2, a, t2);
+        square(t2, t);
+        mul(t, a, t);
+        copy(t, t5);
+        squareTimes(t5, 2);
+        mul(t5, t2, t5);
+
+        // t(3) -> t(6) -> t(12) -> t(24) -> t(48) -> t(96)
+        int ones = 3;
+        long[] t24 = t2;
+        while (ones < 96)
+        {
+            copy(t, previous);
+            squareTimes(t, ones);
+            mul(t, previous, t);
+            ones *= 2;
+            if (ones == 24)
+            {
+                // t(2) is no longer needed
+                copy(t, t24);
+            }
+        }
+
+        // t(120) = t(96)^(2^24) * t(24),  t(125) = t(120)^(2^5) * t(5)
+        squareTimes(t, 24);
+        mul(t, t24, t);
+        squareTimes(t, 5);
+        mul(t, t5, t);
+
+        // a^(p-2) = t(125)^4 * a
+        squareTimes(t, 2);
+        mul(t, a, out);
+    }
+
+    @Override
+    public BigInteger[] evaluate(final BigInteger[] coefficients,
+                                 final BigInteger[] xs)
+    {
+        final long[][] c = new long[coefficients.length][];
+        for (int i = 0; i < c.length; i++)
+        {
+            c[i] = newElement();
+            fromBigInteger(coefficients[i], c[i]);
+        }
+
+        final long[] x = newElement();
+        final long[] value = newElement();
+        BigInteger[] ret = new BigInteger[xs.length];
+        for (int i = 0; i < xs.length; i++)
+        {
+            fromBigInteger(xs[i], x);
+            // Horner's rule
+            copy(c[c.length - 1], value);
+            for (int term = c.length - 2; term >= 0; term--)
+            {
+                mul(value, x, value);
+                add(value, c[term], value);
+            }
+            ret[i] = toBigInteger(value);
+        }
+        return ret;
+    }
+
+    @Override
+    public BigInteger interpolateAtZero(final BigInteger[] xarray,
+                                        final BigInteger[] fofxarray)
+    {
+        if (xarray.length != fofxarray.length)
+        {
+            throw new SecretShareException("Unequal length arrays are not allowed");
+        }
+        final int k = xarray.length;
+        if (k == 0)
+        {
+            throw new SecretShareException("Need at least one point");
+        }
+        final long[][] xs = new long[k][];
+        for (int i = 0; i < k; i++)
+        {
+            xs[i] = newElement();
+            fromBigInteger(xarray[i], xs[i]);
+        }
+
+        // numerators:  product over j != i of x_j, from prefix and suffix products
+        final long[][] numerators = new long[k][];
+        final long[] running = newElement();
+        setOne(running);
+        for (int i = 0; i < k; i++)
+        {
+            numerators[i] = running.clone();
+            mul(running, xs[i], running);
+        }
+        setOne(running);
+        for (int i = k - 1; i >= 0; i--)
+        {
+            mul(numerators[i], running, numerators[i]);
+            mul(running, xs[i], running);
+        }
+
+        // denominators:  product over j != i of (x_j - x_i), and their prefix products
+        final long[][] denominators = new long[k][];
+        final long[][] prefix = new long[k][];
+        final long[] difference = newElement();
+        setOne(running);
+        for (int i = 0; i < k; i++)
+        {
+            denominators[i] = newElement();
+            setOne(denominators[i]);
+            for (int j = 0; j < k; j++)
+            {
+                if (j != i)
+                {
+                    subtract(xs[j], xs[i], difference);
+                    if (isZero(difference))
+                    {
+                        throw new SecretShareException("x values are not distinct mod the modulus");
+                    }
+                    mul(denominators[i], difference, denominators[i]);
+                }
+            }
+            prefix[i] = running.clone();
+            mul(running, denominators[i], running);
+        }
+
+        // one inversion for all the denominators, peeled off from the right
+        final long[] inverse = newElement();
+        inverse(running, inverse, new long[][] { newElement(), newElement(), newElement(), newElement() });
+        final long[] weight = newElement();
+        final long[] y = newElement();
+        final long[] sum = newElement();
+        for (int i = k - 1; i >= 0; i--)
+        {
+            mul(inverse, prefix[i], weight);
+            mul(inverse, denominators[i], inverse);
+            mul(weight, numerators[i], weight);
+            fromBigInteger(fofxarray[i], y);
+            mul(weight, y, weight);
+            add(sum, weight, sum);
+        }
+        return toBigInteger(sum);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Mersenne127Field[p=2^127-1]";
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private static void set(final long high,
+                            final long low,
+                            final long[] out)
+    {
+        out[LOW] = low;
+        out[HIGH] = high;
+    }
+
+    private static void copy(final long[] from,
+                             final long[] to)
+    {
+        to[LOW] = from[LOW];
+        to[HIGH] = from[HIGH];
+    }
+
+    private void squareTimes(final long[] a,
+                             final int times)
+    {
+        for (int i = 0; i < times; i++)
+        {
+            square(a, a);
+        }
+    }
+
+    /**
+     * @return 1 if  sum = x + y  wrapped around 64 unsigned bits, given sum and x, else 0
+     */
+    private static long carry(final long sum,
+                              final long x)
+    {
+        return ((sum + Long.MIN_VALUE) < (x + Long.MIN_VALUE)) ? 1 : 0;
+    }
+
+    /**
+     * out = (high, low) mod p, for any value below 2^128.
+     */
+    private static void fold(final long high,
+                             final long low,
+                             final long[] out)
+    {
+        // bit 127 is worth 1
+        final long top = high >>> 63;
+        final long foldedLow = low + top;
+        set((high & HIGH_MASK) + carry(foldedLow, low), foldedLow, out);
+        // now at most 2^127, which only happens from 2^127 - 1 + 1: still one fold to go
+        canonicalize(out);
+    }
+
+    /**
+     * @param a in [0, 2^127]
+     */
+    private static void canonicalize(final long[] a)
+    {
+        if (a[HIGH] < 0)
+        {
+            // exactly 2^127
+            set(0, 1, a);
+        }
+        else if ((a[HIGH] == HIGH_MASK) && (a[LOW] == -1L))
+        {
+            // exactly p
+            set(0, 0, a);
+        }
+    }
+}
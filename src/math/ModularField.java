@@ -0,0 +1,191 @@
+package math;
+
+import java.math.BigInteger;
+
+import exceptions.SecretShareException;
+
+/**
+ * Arithmetic in GF(p) for one fixed prime p.
+ *
+ * Create one per prime and keep it: the constructor precomputes the Barrett constant
+ *   mu = floor(2^(2b) / p),  b = bitLength(p)
+ * so that reducing a product of two field elements is two multiplications and a
+ *   subtraction, instead of the long division BigInteger.mod() does every time.
+ *   [Handbook of Applied Cryptography, 14.42]
+ *
+ * The add/subtract/mul methods expect values already in [0, p) and return values in [0, p);
+ *   reduce() takes any value.
+ *
+ * Immutable, so it can be shared between threads.
+ */
+public final class ModularField
+{
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final BigInteger modulus;
+    private final int bits;
+    // floor(2^(2*bits) / modulus)
+    private final BigInteger mu;
+    // values below this (p^2) can be Barrett reduced
+    private final BigInteger barrettLimit;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param inModulus the prime; it is not tested for primality, but inverse() fails
+     *        for some values if it is not prime
+     */
+    public ModularField(final BigInteger inModulus)
+    {
+        if ((inModulus == null) || (inModulus.compareTo(BigInteger.ONE) <= 0))
+        {
+            throw new SecretShareException("modulus must be bigger than 1, was " + inModulus);
+        }
+        modulus = inModulus;
+        bits = inModulus.bitLength();
+        mu = BigInteger.ONE.shiftLeft(2 * bits).divide(inModulus);
+        barrettLimit = inModulus.multiply(inModulus);
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    public BigInteger getModulus()
+    {
+        return modulus;
+    }
+
+    /**
+     * @param value any value
+     * @return value mod p, in [0, p)
+     */
+    public BigInteger reduce(final BigInteger value)
+    {
+        if ((value.signum() < 0) || (value.compareTo(barrettLimit) >= 0))
+        {
+            return value.mod(modulus);
+        }
+        if (value.bitLength() < bits)
+        {
+            return value;
+        }
+        // q is at most 2 less than floor(value / p)
+        final BigInteger q = value.shiftRight(bits - 1).multiply(mu).shiftRight(bits + 1);
+        BigInteger ret = value.subtract(q.multiply(modulus));
+        while (ret.compareTo(modulus) >= 0)
+        {
+            ret = ret.subtract(modulus);
+        }
+        return ret;
+    }
+
+    public BigInteger add(final BigInteger a,
+                          final BigInteger b)
+    {
+        final BigInteger ret = a.add(b);
+        return (ret.compareTo(modulus) >= 0) ? ret.subtract(modulus) : ret;
+    }
+
+    public BigInteger subtract(final BigInteger a,
+                               final BigInteger b)
+    {
+        final BigInteger ret = a.subtract(b);
+        return (ret.signum() < 0) ? ret.add(modulus) : ret;
+    }
+
+    public BigInteger negate(final BigInteger a)
+    {
+        return (a.signum() == 0) ? a : modulus.subtract(a);
+    }
+
+    public BigInteger mul(final BigInteger a,
+                          final BigInteger b)
+    {
+        return reduce(a.multiply(b));
+    }
+
+    /**
+     * @throws SecretShareException if a is zero mod p
+     */
+    public BigInteger inverse(final BigInteger a)
+    {
+        try
+        {
+            return a.modInverse(modulus);
+        }
+        catch (ArithmeticException e)
+        {
+            throw new SecretShareException("No inverse of " + a + " mod " + modulus +
+                                           "; the modulus must be prime", e);
+        }
+    }
+
+    /**
+     * @param a base
+     * @param exponent not negative
+     * @return a^exponent mod p
+     */
+    public BigInteger pow(final BigInteger a,
+                          final BigInteger exponent)
+    {
+        // modPow() already uses Montgomery multiplication for an odd modulus
+        return a.modPow(exponent, modulus);
+    }
+
+    /**
+     * Invert every value with one inverse() ("Montgomery's trick"):
+     *   invert the product of all values, then peel off one value at a time.
+     *
+     * @param values in [0, p)
+     * @return the inverses, same order
+     * @throws SecretShareException if any value is zero mod p
+     */
+    public BigInteger[] inverseAll(final BigInteger[] values)
+    {
+        final int k = values.length;
+        BigInteger[] prefix = new BigInteger[k];
+        BigInteger running = BigInteger.ONE;
+        for (int i = 0; i < k; i++)
+        {
+            prefix[i] = running;
+            running = mul(running, values[i]);
+        }
+
+        if (running.signum() == 0)
+        {
+            throw new SecretShareException("x values are not distinct mod the modulus");
+        }
+        BigInteger inverse = inverse(running);
+
+        BigInteger[] ret = new BigInteger[k];
+        for (int i = k - 1; i >= 0; i--)
+        {
+            ret[i] = mul(inverse, prefix[i]);
+            inverse = mul(inverse, values[i]);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+        return (obj instanceof ModularField) && modulus.equals(((ModularField) obj).modulus);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return modulus.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GF(" + modulus + ")";
+    }
+}
@@ -19,6 +19,8 @@ package math;
 
 import java.io.PrintStream;
 import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import exceptions.SecretShareException;
 
@@ -50,6 +52,19 @@ public class PolyEquationImpl
     // class static data
     // ==================================================
 
+    // batch evaluation goes parallel from this many x values, in tasks of TASK_XS values
+    private static final int PARALLEL_XS = 256;
+    private static final int TASK_XS = 64;
+
+    /**
+     * The pool for parallel batch evaluation, created the first time it is needed.
+     *   Its threads are daemon threads.
+     */
+    private static final class Parallel
+    {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
     // ==================================================
     // class static methods
     // ==================================================
@@ -117,27 +132,152 @@ public class PolyEquationImpl
     // public methods
     // ==================================================
 
+    /**
+     * f(x) over the integers, by Horner's rule.
+     *
+     * @param x any value
+     * @return f(x)
+     */
     public BigInteger calculateFofX(final BigInteger x)
     {
-        // pick up the 0th term directly:
-        BigInteger ret = coefficients[0];
+        BigInteger ret = coefficients[coefficients.length - 1];
+        for (int term = coefficients.length - 2; term >= 0; term--)
+        {
+            ret = ret.multiply(x).add(coefficients[term]);
+        }
+        return ret;
+    }
 
-        // for each of the other terms:
-        for (int term = 1, n = coefficients.length; term < n; term++)
+    /**
+     * f(x) in GF(p), by Horner's rule: one multiplication and one addition per coefficient,
+     *   every intermediate value reduced by the field.
+     *
+     * @param x any value
+     * @param field GF(p)
+     * @return f(x) mod p
+     */
+    public BigInteger calculateFofX(final BigInteger x,
+                                    final ModularField field)
+    {
+        final BigInteger reducedX = field.reduce(x);
+        BigInteger ret = field.reduce(coefficients[coefficients.length - 1]);
+        for (int term = coefficients.length - 2; term >= 0; term--)
         {
-            // the index of term N is N:
-            final int indexOfTerm = term;
+            ret = field.add(field.mul(ret, reducedX), field.reduce(coefficients[term]));
+        }
+        return ret;
+    }
 
-            // the exponent of term N is N:
-            final int powerOfTerm = term;
+    /**
+     * f(1), f(2), ..., f(n): the shares of a split.
+     *   Each x is evaluated by Horner's rule, so the cost is linear in n*k;
+     *   with a field, every intermediate value is reduced, so nothing grows with x.
+     *   From PARALLEL_XS values of x, the x values are spread over a ForkJoinPool.
+     *
+     * @param n how many x values, at least 0
+     * @param field GF(p), or null for integer arithmetic
+     * @return f(x) at [x - 1], reduced mod p if there is a field
+     */
+    public BigInteger[] calculateFofXFromOneTo(final int n,
+                                               final ModularField field)
+    {
+        return calculateFofXForRange(1, n + 1, field);
+    }
 
-            BigInteger base = x;
-            BigInteger power = base.pow(powerOfTerm);
+    /**
+     * As calculateFofXFromOneTo(int, ModularField), with a specialised field.
+     *
+     * @param n how many x values, at least 0
+     * @param field GF(p)
+     * @return f(x) mod p at [x - 1]
+     */
+    public BigInteger[] calculateFofXFromOneTo(final int n,
+                                               final FixedPrimeField field)
+    {
+        return calculateFofXForRange(1, n + 1, field);
+    }
 
-            BigInteger add = coefficients[indexOfTerm].multiply(power);
-            ret = ret.add(add);
+    /**
+     * f(fromX), ..., f(toX - 1), as calculateFofXFromOneTo(int, ModularField).
+     *
+     * @param fromX first x, inclusive
+     * @param toX last x, exclusive; at least fromX
+     * @param field GF(p), or null for integer arithmetic
+     * @return f(x) at [x - fromX], reduced mod p if there is a field
+     */
+    public BigInteger[] calculateFofXForRange(final int fromX,
+                                              final int toX,
+                                              final ModularField field)
+    {
+        final BigInteger[] reducedCoefficients;
+        if (field != null)
+        {
+            reducedCoefficients = new BigInteger[coefficients.length];
+            for (int i = 0; i < coefficients.length; i++)
+            {
+                reducedCoefficients[i] = field.reduce(coefficients[i]);
+            }
         }
-        return ret;
+        else
+        {
+            reducedCoefficients = coefficients;
+        }
+
+        return evaluateRange(fromX, toX, new XRangeEvaluator()
+        {
+            @Override
+            public void evaluate(final int from,
+                                 final int to,
+                                 final BigInteger[] out)
+            {
+                for (int x = from; x < to; x++)
+                {
+                    final BigInteger bigX = BigInteger.valueOf(x);
+                    BigInteger value = reducedCoefficients[reducedCoefficients.length - 1];
+                    for (int term = reducedCoefficients.length - 2; term >= 0; term--)
+                    {
+                        if (field != null)
+                        {
+                            value = field.add(field.mul(value, bigX), reducedCoefficients[term]);
+                        }
+                        else
+                        {
+                            value = value.multiply(bigX).add(reducedCoefficients[term]);
+                        }
+                    }
+                    out[x - fromX] = value;
+                }
+            }
+        });
+    }
+
+    /**
+     * As calculateFofXForRange(int, int, ModularField), with a specialised field.
+     *
+     * @param fromX first x, inclusive
+     * @param toX last x, exclusive; at least fromX
+     * @param field GF(p)
+     * @return f(x) mod p at [x - fromX]
+     */
+    public BigInteger[] calculateFofXForRange(final int fromX,
+                                              final int toX,
+                                              final FixedPrimeField field)
+    {
+        return evaluateRange(fromX, toX, new XRangeEvaluator()
+        {
+            @Override
+            public void evaluate(final int from,
+                                 final int to,
+                                 final BigInteger[] out)
+            {
+                BigInteger[] xs = new BigInteger[to - from];
+                for (int x = from; x < to; x++)
+                {
+                    xs[x - from] = BigInteger.valueOf(x);
+                }
+                System.arraycopy(field.evaluate(coefficients, xs), 0, out, from - fromX, xs.length);
+            }
+        });
     }
 
     public String debugDump()
@@ -173,4 +313,75 @@ public class PolyEquationImpl
     // ==================================================
     // non public methods
     // ==================================================
+
+    private static BigInteger[] evaluateRange(final int fromX,
+                                              final int toX,
+                                              final XRangeEvaluator evaluator)
+    {
+        if (toX < fromX)
+        {
+            throw new SecretShareException("x range [" + fromX + ", " + toX + ") ends before it starts");
+        }
+        final int n = toX - fromX;
+        BigInteger[] ret = new BigInteger[n];
+        if ((n < PARALLEL_XS) || (Runtime.getRuntime().availableProcessors() < 2))
+        {
+            evaluator.evaluate(fromX, toX, ret);
+        }
+        else
+        {
+            Parallel.POOL.invoke(new XRange(evaluator, fromX, toX, ret));
+        }
+        return ret;
+    }
+
+    /**
+     * Evaluates f(x) for x in [fromX, toX) into out, at x minus the first x of the whole range.
+     */
+    private interface XRangeEvaluator
+    {
+        void evaluate(int fromX,
+                      int toX,
+                      BigInteger[] out);
+    }
+
+    /**
+     * A range of x values: halved until at most TASK_XS are left.
+     */
+    private static class XRange
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final XRangeEvaluator evaluator;
+        private final int fromX;
+        private final int toX;
+        private final BigInteger[] out;
+
+        XRange(final XRangeEvaluator inEvaluator,
+               final int inFromX,
+               final int inToX,
+               final BigInteger[] inOut)
+        {
+            evaluator = inEvaluator;
+            fromX = inFromX;
+            toX = inToX;
+            out = inOut;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (toX - fromX <= TASK_XS)
+            {
+                evaluator.evaluate(fromX, toX, out);
+            }
+            else
+            {
+                final int middle = (fromX + toX) >>> 1;
+                invokeAll(new XRange(evaluator, fromX, middle, out),
+                          new XRange(evaluator, middle, toX, out));
+            }
+        }
+    }
 }
@@ -0,0 +1,186 @@
+package math;
+
+import java.util.Arrays;
+
+import exceptions.SecretShareException;
+
+/**
+ * The combinations of k indexes out of 0..n-1 in "revolving door" order:
+ *   each combination differs from the one before it by exactly one index leaving
+ *   and one index entering.
+ *   [Knuth, TAOCP 4A, 7.2.1.3, Algorithm R]
+ *
+ * That makes it the order of choice when work can be updated from one combination
+ *   to the next instead of redone; see LagrangeInterpolation.Subset.
+ *
+ * Like CombinationCursor it allocates nothing per combination.
+ */
+public final class RevolvingDoorCombinations
+{
+    // ==================================================
+    // instance data
+    // ==================================================
+
+    private final int n;
+    private final int k;
+
+    // c[1..k] are the current indexes, ascending (1-based, as in Algorithm R);
+    // c[k+1] = n and c[k+2] = n+1 are sentinels
+    private final int[] c;
+
+    private int leaving = -1;
+    private int entering = -1;
+    private long combinationNumber = 0;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * Positioned at the first combination, {0, 1, ..., k-1}.
+     *
+     * @param inN number of items
+     * @param inK number chosen
+     */
+    public RevolvingDoorCombinations(final int inN,
+                                     final int inK)
+    {
+        if ((inK < 1) || (inK > inN))
+        {
+            throw new SecretShareException("choice size must be 1 to " + inN + ", was " + inK);
+        }
+        n = inN;
+        k = inK;
+        c = new int[k + 3];
+        for (int j = 1; j <= k; j++)
+        {
+            c[j] = j - 1;
+        }
+        c[k + 1] = n;
+        c[k + 2] = n + 1;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * @return number of indexes in a combination, k
+     */
+    public int size()
+    {
+        return k;
+    }
+
+    /**
+     * @param position 0 to k-1
+     * @return the index at that position of the current combination; ascending by position
+     */
+    public int get(final int position)
+    {
+        return c[position + 1];
+    }
+
+    /**
+     * @return 0 for the first combination, 1 for the next, etc.
+     */
+    public long getCombinationNumber()
+    {
+        return combinationNumber;
+    }
+
+    /**
+     * @return the index that the last next() removed, or -1 before the first next()
+     */
+    public int getLeaving()
+    {
+        return leaving;
+    }
+
+    /**
+     * @return the index that the last next() added, or -1 before the first next()
+     */
+    public int getEntering()
+    {
+        return entering;
+    }
+
+    /**
+     * Move to the next combination.
+     *
+     * @return false if the current combination was the last one (and nothing changed)
+     */
+    public boolean next()
+    {
+        int j;
+        boolean tryDecrease;
+
+        // R3: the easy cases only move c[1]
+        if ((k & 1) == 1)
+        {
+            if (c[1] + 1 < c[2])
+            {
+                swap(c[1], c[1] + 1);
+                c[1]++;
+                return true;
+            }
+            tryDecrease = true;
+        }
+        else
+        {
+            if (c[1] > 0)
+            {
+                swap(c[1], c[1] - 1);
+                c[1]--;
+                return true;
+            }
+            tryDecrease = false;
+        }
+        j = 2;
+
+        while (j <= k)
+        {
+            if (tryDecrease)
+            {
+                // R4: here c[j] == c[j-1] + 1
+                if (c[j] >= j)
+                {
+                    swap(c[j], j - 2);
+                    c[j] = c[j - 1];
+                    c[j - 1] = j - 2;
+                    return true;
+                }
+                j++;
+            }
+            // R5: here c[j-1] == j - 2
+            if (c[j] + 1 < c[j + 1])
+            {
+                swap(j - 2, c[j] + 1);
+                c[j - 1] = c[j];
+                c[j]++;
+                return true;
+            }
+            j++;
+            tryDecrease = true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(Arrays.copyOfRange(c, 1, k + 1));
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private void swap(final int inLeaving,
+                      final int inEntering)
+    {
+        leaving = inLeaving;
+        entering = inEntering;
+        combinationNumber++;
+    }
+}
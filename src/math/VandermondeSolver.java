@@ -0,0 +1,196 @@
+package math;
+
+import java.math.BigInteger;
+
+import exceptions.SecretShareException;
+
+/**
+ * Solves the polynomial system that EasyLinearEquation.createForPolynomial() builds,
+ *   i.e. finds all coefficients of the polynomial through k points (x, f(x)).
+ *
+ * Every row of that system is  f(x) = C + a*x + b*x^2 + ...  (a Vandermonde matrix),
+ *   so instead of general elimination, which is O(k^3), this uses Newton's divided differences:
+ *   O(k^2) to get the Newton form of the polynomial, and O(k^2) to expand it into
+ *   the ordinary coefficients [term0, term1, ...] as used by PolyEquationImpl.
+ *
+ * Without a modulus all the divisions are exact when the points come from a polynomial
+ *   with integer coefficients (which is what split() creates).
+ * With a prime modulus the arithmetic is done in GF(p) through a ModularField,
+ *   and the k*(k-1)/2 differences of the x values are inverted together with a single inverse().
+ */
+public final class VandermondeSolver
+{
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @param xarray the "X" values, must all be different
+     * @param fofxarray the "f(x)" values
+     * @param modulus prime modulus, or null to compute over the integers
+     * @return the coefficients, [0] is the constant term, [1] the x term, etc.
+     *         With a modulus they are all in the range [0, modulus).
+     * @throws SecretShareException if the points do not describe an integer polynomial
+     */
+    public static BigInteger[] solveCoefficients(final BigInteger[] xarray,
+                                                 final BigInteger[] fofxarray,
+                                                 final BigInteger modulus)
+    {
+        return solveCoefficients(xarray, fofxarray,
+                                 (modulus != null) ? new ModularField(modulus) : null);
+    }
+
+    /**
+     * @param xarray the "X" values, must all be different
+     * @param fofxarray the "f(x)" values
+     * @param field GF(p) to compute in, or null to compute over the integers
+     * @return the coefficients, [0] is the constant term, [1] the x term, etc.
+     *         With a field they are all in the range [0, p).
+     * @throws SecretShareException if the points do not describe an integer polynomial
+     */
+    public static BigInteger[] solveCoefficients(final BigInteger[] xarray,
+                                                 final BigInteger[] fofxarray,
+                                                 final ModularField field)
+    {
+        if (xarray.length != fofxarray.length)
+        {
+            throw new SecretShareException("Unequal length arrays are not allowed");
+        }
+        if (xarray.length == 0)
+        {
+            throw new SecretShareException("Need at least one point");
+        }
+
+        BigInteger[] newton = dividedDifferences(xarray, fofxarray, field);
+        return expandNewtonForm(xarray, newton, field);
+    }
+
+    /**
+     * @see #solveCoefficients(BigInteger[], BigInteger[], BigInteger)
+     * @return the polynomial through the points
+     */
+    public static PolyEquationImpl solvePolynomial(final BigInteger[] xarray,
+                                                   final BigInteger[] fofxarray,
+                                                   final BigInteger modulus)
+    {
+        return new PolyEquationImpl(solveCoefficients(xarray, fofxarray, modulus));
+    }
+
+    /**
+     * @see #solveCoefficients(BigInteger[], BigInteger[], ModularField)
+     * @return the polynomial through the points
+     */
+    public static PolyEquationImpl solvePolynomial(final BigInteger[] xarray,
+                                                   final BigInteger[] fofxarray,
+                                                   final ModularField field)
+    {
+        return new PolyEquationImpl(solveCoefficients(xarray, fofxarray, field));
+    }
+
+    /**
+     * @return the Newton coefficients  f[x0], f[x0,x1], ..., f[x0,...,xk-1]
+     */
+    private static BigInteger[] dividedDifferences(final BigInteger[] xarray,
+                                                   final BigInteger[] fofxarray,
+                                                   final ModularField field)
+    {
+        final int k = xarray.length;
+        BigInteger[] ret = new BigInteger[k];
+        for (int i = 0; i < k; i++)
+        {
+            ret[i] = reduce(fofxarray[i], field);
+        }
+
+        // every difference x[i] - x[i-j] that the table below divides by, in the order it needs them
+        BigInteger[] divisors = new BigInteger[(k * (k - 1)) / 2];
+        int next = 0;
+        for (int j = 1; j < k; j++)
+        {
+            for (int i = k - 1; i >= j; i--)
+            {
+                BigInteger diff = xarray[i].subtract(xarray[i - j]);
+                if (diff.signum() == 0)
+                {
+                    throw new SecretShareException("Duplicate x value " + xarray[i]);
+                }
+                divisors[next++] = diff;
+            }
+        }
+        if (field != null)
+        {
+            for (int d = 0; d < divisors.length; d++)
+            {
+                divisors[d] = field.reduce(divisors[d]);
+            }
+            divisors = field.inverseAll(divisors);
+        }
+
+        // the divided difference table, one column at a time, kept in place
+        next = 0;
+        for (int j = 1; j < k; j++)
+        {
+            for (int i = k - 1; i >= j; i--)
+            {
+                BigInteger numerator = ret[i].subtract(ret[i - 1]);
+                if (field != null)
+                {
+                    ret[i] = field.mul(field.reduce(numerator), divisors[next++]);
+                }
+                else
+                {
+                    BigInteger[] quotientAndRemainder = numerator.divideAndRemainder(divisors[next++]);
+                    if (quotientAndRemainder[1].signum() != 0)
+                    {
+                        throw new SecretShareException("Points do not lie on a polynomial with integer coefficients");
+                    }
+                    ret[i] = quotientAndRemainder[0];
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Expand   c0 + (x-x0)*(c1 + (x-x1)*(c2 + ...))   from the inside out.
+     *
+     * @return the ordinary coefficients
+     */
+    private static BigInteger[] expandNewtonForm(final BigInteger[] xarray,
+                                                 final BigInteger[] newton,
+                                                 final ModularField field)
+    {
+        final int k = newton.length;
+        BigInteger[] ret = new BigInteger[k];
+        ret[0] = newton[k - 1];
+        int degree = 0;
+        for (int j = k - 2; j >= 0; j--)
+        {
+            // multiply by (x - x[j]) ...
+            final BigInteger x = xarray[j];
+            ret[degree + 1] = ret[degree];
+            for (int m = degree; m >= 1; m--)
+            {
+                ret[m] = reduce(ret[m - 1].subtract(x.multiply(ret[m])), field);
+            }
+            // ... and add c[j]
+            ret[0] = reduce(newton[j].subtract(x.multiply(ret[0])), field);
+            degree++;
+        }
+        return ret;
+    }
+
+    private static BigInteger reduce(final BigInteger value,
+                                     final ModularField field)
+    {
+        return (field != null) ? field.reduce(value) : value;
+    }
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private VandermondeSolver()
+    {
+        // no instances
+    }
+}
@@ -0,0 +1,328 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.util.zip.CRC32;
+
+import exceptions.SecretShareException;
+
+/**
+ * Length-prefixed binary alternative to the text request format.
+ *
+ * Request frame:
+ *   MAGIC FRAME_COMBINE VERSION
+ *   share set
+ *
+ * Batch request frame, many independent secrets in one frame:
+ *   MAGIC FRAME_BATCH VERSION
+ *   varint count
+ *   count share sets
+ *
+ * Share set:
+ *   varint n
+ *   varint k
+ *   varint modulusLength, modulusLength bytes big-endian magnitude  (length 0 = no modulus)
+ *   varint shareCount
+ *   shareCount times:
+ *     varint x
+ *     varint shareLength, shareLength bytes big-endian magnitude
+ *     4 bytes CRC32 (big-endian) over the x, shareLength and magnitude bytes of this share
+ *
+ * Response frame:
+ *   MAGIC FRAME_COMBINE VERSION
+ *   result
+ *
+ * Batch response frame, the results in the order of the share sets:
+ *   MAGIC FRAME_BATCH VERSION
+ *   varint count
+ *   count results
+ *
+ * Result:
+ *   status byte (STATUS_OK or STATUS_ERROR)
+ *   varint payloadLength, payload
+ *     STATUS_OK:    the secret, as BigInteger.toByteArray()
+ *     STATUS_ERROR: the error message in UTF-8
+ *
+ * A varint is an unsigned LEB128 number: 7 bits per byte, least significant group first,
+ *   the high bit set on every byte except the last.
+ *
+ * Frames are self-delimiting, so a client can send any number of them on one connection
+ *   and gets one response frame per request frame, in order.
+ *
+ * A batch holds at most MAX_BATCH_COUNT share sets, and a share set at most MAX_SHARE_COUNT
+ *   shares; a frame over either limit is rejected as soon as the count is read, since a
+ *   whole batch is held in memory and answered as one request.  Send more frames instead.
+ *
+ * MAGIC is not an ASCII character, so the first byte tells a binary connection
+ *   apart from a text connection (which starts with the digits of n).
+ */
+public final class BinaryShareProtocol
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+    public static final byte MAGIC = (byte) 0xB5;
+    public static final byte FRAME_COMBINE = (byte) 0x55;
+    public static final byte FRAME_BATCH = (byte) 0x42;
+    public static final byte VERSION = 1;
+
+    /** most share sets in one batch frame */
+    public static final int MAX_BATCH_COUNT = 1024;
+    /** most shares in one share set */
+    public static final int MAX_SHARE_COUNT = 4096;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    private static final String UTF8 = "UTF-8";
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @param firstByte first byte received on a connection
+     * @return true if the connection uses the binary protocol
+     */
+    public static boolean isBinary(final byte firstByte)
+    {
+        return firstByte == MAGIC;
+    }
+
+    /**
+     * Encode a request frame.
+     *
+     * @param n total number of shares
+     * @param k number of shares needed to combine
+     * @param modulus prime modulus, or null
+     * @param xs the x of every share
+     * @param shares the f(x) of every share, must not be negative
+     * @return the frame
+     */
+    public static byte[] createRequest(final int n,
+                                       final int k,
+                                       final BigInteger modulus,
+                                       final int[] xs,
+                                       final BigInteger[] shares)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeHeader(out, FRAME_COMBINE);
+        writeShareSet(out, n, k, modulus, xs, shares);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param secret recovered secret
+     * @return a STATUS_OK response frame
+     */
+    public static byte[] createResponse(final BigInteger secret)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeHeader(out, FRAME_COMBINE);
+        writeResult(out, STATUS_OK, secret.toByteArray());
+        return out.toByteArray();
+    }
+
+    /**
+     * @param message what went wrong
+     * @return a STATUS_ERROR response frame
+     */
+    public static byte[] createErrorResponse(final String message)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeHeader(out, FRAME_COMBINE);
+        writeResult(out, STATUS_ERROR, utf8(message));
+        return out.toByteArray();
+    }
+
+    static void writeVarint(final ByteArrayOutputStream out,
+                            final int value)
+    {
+        if (value < 0)
+        {
+            throw new SecretShareException("varint cannot be negative: " + value);
+        }
+        int v = value;
+        while ((v & ~0x7F) != 0)
+        {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    static void writeInt(final ByteArrayOutputStream out,
+                         final int value)
+    {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeHeader(final ByteArrayOutputStream out,
+                            final byte frame)
+    {
+        out.write(MAGIC);
+        out.write(frame);
+        out.write(VERSION);
+    }
+
+    private static void writeShareSet(final ByteArrayOutputStream out,
+                                      final int n,
+                                      final int k,
+                                      final BigInteger modulus,
+                                      final int[] xs,
+                                      final BigInteger[] shares)
+    {
+        if (xs.length != shares.length)
+        {
+            throw new SecretShareException("Unequal length arrays are not allowed");
+        }
+        writeVarint(out, n);
+        writeVarint(out, k);
+        writeMagnitude(out, modulus);
+        if (shares.length > MAX_SHARE_COUNT)
+        {
+            throw new SecretShareException("At most " + MAX_SHARE_COUNT + " shares per share set, was " +
+                                           shares.length);
+        }
+        writeVarint(out, shares.length);
+
+        ByteArrayOutputStream share = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < shares.length; i++)
+        {
+            share.reset();
+            writeVarint(share, xs[i]);
+            writeMagnitude(share, shares[i]);
+            byte[] encoded = share.toByteArray();
+
+            crc.reset();
+            crc.update(encoded, 0, encoded.length);
+            out.write(encoded, 0, encoded.length);
+            writeInt(out, (int) crc.getValue());
+        }
+    }
+
+    private static void writeResult(final ByteArrayOutputStream out,
+                                    final byte status,
+                                    final byte[] payload)
+    {
+        out.write(status);
+        writeVarint(out, payload.length);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static byte[] utf8(final String message)
+    {
+        try
+        {
+            return String.valueOf(message).getBytes(UTF8);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // just can't happen, but if it does:
+            throw new SecretShareException("UTF8 not found", e);
+        }
+    }
+
+    /**
+     * Write the length-prefixed big-endian magnitude, length 0 for null.
+     */
+    private static void writeMagnitude(final ByteArrayOutputStream out,
+                                       final BigInteger value)
+    {
+        if (value == null)
+        {
+            writeVarint(out, 0);
+            return;
+        }
+        if (value.signum() < 0)
+        {
+            throw new SecretShareException("binary protocol values cannot be negative");
+        }
+        byte[] bytes = value.toByteArray();
+        // toByteArray() adds a leading 0 sign byte when the top bit is set:
+        int offset = ((bytes.length > 1) && (bytes[0] == 0)) ? 1 : 0;
+        writeVarint(out, bytes.length - offset);
+        out.write(bytes, offset, bytes.length - offset);
+    }
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    private BinaryShareProtocol()
+    {
+        // no instances
+    }
+
+    /**
+     * Collects share sets into one batch request frame.
+     */
+    public static class BatchRequest
+    {
+        private final ByteArrayOutputStream sets = new ByteArrayOutputStream();
+        private int count = 0;
+
+        /**
+         * Add one secret's shares, see createRequest() for the parameters.
+         */
+        public void add(final int n,
+                        final int k,
+                        final BigInteger modulus,
+                        final int[] xs,
+                        final BigInteger[] shares)
+        {
+            if (count == MAX_BATCH_COUNT)
+            {
+                throw new SecretShareException("At most " + MAX_BATCH_COUNT + " share sets per batch");
+            }
+            writeShareSet(sets, n, k, modulus, xs, shares);
+            count++;
+        }
+
+        public byte[] toByteArray()
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(sets.size() + 8);
+            writeHeader(out, FRAME_BATCH);
+            writeVarint(out, count);
+            byte[] body = sets.toByteArray();
+            out.write(body, 0, body.length);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Collects results, in the order of the share sets, into one batch response frame.
+     */
+    public static class BatchResponse
+    {
+        private final ByteArrayOutputStream results = new ByteArrayOutputStream();
+        private int count = 0;
+
+        public void addSecret(final BigInteger secret)
+        {
+            writeResult(results, STATUS_OK, secret.toByteArray());
+            count++;
+        }
+
+        public void addError(final String message)
+        {
+            writeResult(results, STATUS_ERROR, utf8(message));
+            count++;
+        }
+
+        public byte[] toByteArray()
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(results.size() + 8);
+            writeHeader(out, FRAME_BATCH);
+            writeVarint(out, count);
+            byte[] body = results.toByteArray();
+            out.write(body, 0, body.length);
+            return out.toByteArray();
+        }
+    }
+}
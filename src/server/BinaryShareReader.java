@@ -0,0 +1,412 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import exceptions.SecretShareException;
+
+/**
+ * Incremental reader for the binary request frames described in BinaryShareProtocol.
+ *
+ * Like ShareTokenizer, bytes are fed in as they arrive and every field is reported
+ *   to the Listener as soon as it is complete; only the current field is buffered.
+ * Each share's CRC32 is checked before the share is reported.
+ *
+ * A share set that fails (bad CRC, or rejected by the Listener) fails on its own:
+ *   the Listener is told once through error(), the rest of the set is read but not reported,
+ *   and the next set or frame is read normally.
+ * Only bytes that break the framing itself (magic, version, lengths, or counts over
+ *   BinaryShareProtocol.MAX_BATCH_COUNT / MAX_SHARE_COUNT) throw.
+ */
+public class BinaryShareReader
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    private enum State
+    {
+        MAGIC, FRAME, VERSION, BATCH_COUNT,
+        N, K, MODULUS_LENGTH, MODULUS,
+        SHARE_COUNT, X, SHARE_LENGTH, SHARE, CRC
+    }
+
+    // ==================================================
+    // instance data
+    // ==================================================
+    private final Listener listener;
+    private final int maxFieldLength;
+
+    private State state = State.MAGIC;
+
+    // varint being read:
+    private int varint;
+    private int varintShift;
+
+    // length-prefixed field (or the CRC) being read; reused for every field
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    private int fieldRead;
+
+    // frame values
+    private boolean batch;
+    private int setsLeft;
+    private int n;
+    private int sharesLeft;
+    private int x;
+    private final CRC32 crc = new CRC32();
+    // the current share set was rejected, read it to its end without reporting
+    private boolean failed;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    public BinaryShareReader(final Listener inListener)
+    {
+        this(inListener, ShareTokenizer.DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
+    public BinaryShareReader(final Listener inListener,
+                             final int inMaxFieldLength)
+    {
+        listener = inListener;
+        maxFieldLength = inMaxFieldLength;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * Consume bytes until the buffer is empty or a frame is complete.
+     * Bytes after the end of a frame are left in the buffer.
+     *
+     * @param in bytes as received
+     * @return true if a frame was completed (and Listener.endFrame() was called)
+     * @throws SecretShareException if the bytes are not a valid frame
+     */
+    public boolean consume(final ByteBuffer in)
+    {
+        while (in.hasRemaining())
+        {
+            switch (state)
+            {
+                case MAGIC:
+                    expect(in.get(), BinaryShareProtocol.MAGIC, "magic");
+                    state = State.FRAME;
+                    break;
+                case FRAME:
+                    final byte frame = in.get();
+                    if ((frame != BinaryShareProtocol.FRAME_COMBINE) &&
+                        (frame != BinaryShareProtocol.FRAME_BATCH))
+                    {
+                        throw new SecretShareException("bad frame type byte " + (frame & 0xFF));
+                    }
+                    batch = (frame == BinaryShareProtocol.FRAME_BATCH);
+                    state = State.VERSION;
+                    break;
+                case VERSION:
+                    expect(in.get(), BinaryShareProtocol.VERSION, "version");
+                    if (batch)
+                    {
+                        startVarint(State.BATCH_COUNT);
+                    }
+                    else
+                    {
+                        listener.startFrame(false);
+                        setsLeft = 1;
+                        startShareSet();
+                    }
+                    break;
+                case BATCH_COUNT:
+                    if (readVarint(in))
+                    {
+                        checkCount(varint, BinaryShareProtocol.MAX_BATCH_COUNT, "share sets in a batch");
+                        listener.startFrame(true);
+                        setsLeft = varint;
+                        if (startShareSet())
+                        {
+                            return true;
+                        }
+                    }
+                    break;
+                case N:
+                    if (readVarint(in))
+                    {
+                        n = varint;
+                        startVarint(State.K);
+                    }
+                    break;
+                case K:
+                    if (readVarint(in))
+                    {
+                        try
+                        {
+                            listener.header(n, varint);
+                        }
+                        catch (SecretShareException e)
+                        {
+                            fail(e);
+                        }
+                        startVarint(State.MODULUS_LENGTH);
+                    }
+                    break;
+                case MODULUS_LENGTH:
+                    if (readVarint(in))
+                    {
+                        if (varint == 0)
+                        {
+                            startVarint(State.SHARE_COUNT);
+                        }
+                        else
+                        {
+                            startField(State.MODULUS, varint);
+                        }
+                    }
+                    break;
+                case MODULUS:
+                    if (readField(in))
+                    {
+                        if (! failed)
+                        {
+                            try
+                            {
+                                listener.modulus(field, 0, fieldLength);
+                            }
+                            catch (SecretShareException e)
+                            {
+                                fail(e);
+                            }
+                        }
+                        startVarint(State.SHARE_COUNT);
+                    }
+                    break;
+                case SHARE_COUNT:
+                    if (readVarint(in))
+                    {
+                        checkCount(varint, BinaryShareProtocol.MAX_SHARE_COUNT, "shares in a share set");
+                        sharesLeft = varint;
+                        if (startShare())
+                        {
+                            return true;
+                        }
+                    }
+                    break;
+                case X:
+                    crc.update(in.get(in.position()));
+                    if (readVarint(in))
+                    {
+                        x = varint;
+                        startVarint(State.SHARE_LENGTH);
+                    }
+                    break;
+                case SHARE_LENGTH:
+                    crc.update(in.get(in.position()));
+                    if (readVarint(in))
+                    {
+                        if (varint == 0)
+                        {
+                            throw new SecretShareException("share x:" + x + " is empty");
+                        }
+                        startField(State.SHARE, varint);
+                    }
+                    break;
+                case SHARE:
+                    if (readField(in))
+                    {
+                        crc.update(field, 0, fieldLength);
+                        // the share stays in 'field' until its CRC has been checked
+                        state = State.CRC;
+                        fieldRead = 0;
+                        varint = 0;
+                    }
+                    break;
+                case CRC:
+                    varint = (varint << 8) | (in.get() & 0xFF);
+                    if (++fieldRead == 4)
+                    {
+                        reportShare();
+                        sharesLeft--;
+                        if (startShare())
+                        {
+                            return true;
+                        }
+                    }
+                    break;
+                default:
+                    throw new SecretShareException("Programmer error, state=" + state);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if no bytes of a frame have been read since the last complete frame
+     */
+    public boolean isBetweenFrames()
+    {
+        return state == State.MAGIC;
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private void reportShare()
+    {
+        if (failed)
+        {
+            return;
+        }
+        if (varint != (int) crc.getValue())
+        {
+            fail(new SecretShareException("share x:" + x + " failed its CRC32 check"));
+            return;
+        }
+        try
+        {
+            listener.share(x, field, 0, fieldLength);
+        }
+        catch (SecretShareException e)
+        {
+            fail(e);
+        }
+    }
+
+    private void fail(final SecretShareException e)
+    {
+        failed = true;
+        listener.error(e);
+    }
+
+    /**
+     * @return true if there are no more share sets and the frame is complete
+     */
+    private boolean startShareSet()
+    {
+        if (setsLeft == 0)
+        {
+            state = State.MAGIC;
+            listener.endFrame();
+            return true;
+        }
+        setsLeft--;
+        failed = false;
+        startVarint(State.N);
+        return false;
+    }
+
+    /**
+     * @return true if there are no more shares and the frame is complete
+     */
+    private boolean startShare()
+    {
+        if (sharesLeft == 0)
+        {
+            listener.endShareSet();
+            return startShareSet();
+        }
+        crc.reset();
+        startVarint(State.X);
+        return false;
+    }
+
+    private void startVarint(final State next)
+    {
+        state = next;
+        varint = 0;
+        varintShift = 0;
+    }
+
+    /**
+     * @return true if the varint is complete
+     */
+    private boolean readVarint(final ByteBuffer in)
+    {
+        final int b = in.get() & 0xFF;
+        if ((varintShift == 28) && ((b & 0xF8) != 0))
+        {
+            throw new SecretShareException("varint too big in " + state);
+        }
+        varint |= (b & 0x7F) << varintShift;
+        varintShift += 7;
+        return (b & 0x80) == 0;
+    }
+
+    private void startField(final State next,
+                            final int length)
+    {
+        if (length > maxFieldLength)
+        {
+            throw new SecretShareException(next + " is longer than " + maxFieldLength + " bytes");
+        }
+        if (field.length < length)
+        {
+            field = new byte[length];
+        }
+        state = next;
+        fieldLength = length;
+        fieldRead = 0;
+    }
+
+    /**
+     * @return true if the field is complete
+     */
+    private boolean readField(final ByteBuffer in)
+    {
+        final int count = Math.min(fieldLength - fieldRead, in.remaining());
+        in.get(field, fieldRead, count);
+        fieldRead += count;
+        return fieldRead == fieldLength;
+    }
+
+    private static void checkCount(final int count,
+                                   final int max,
+                                   final String what)
+    {
+        if (count > max)
+        {
+            throw new SecretShareException(count + " " + what + ", at most " + max + " are allowed");
+        }
+    }
+
+    private static void expect(final byte actual,
+                               final byte expected,
+                               final String what)
+    {
+        if (actual != expected)
+        {
+            throw new SecretShareException("bad " + what + " byte " + (actual & 0xFF) +
+                                           ", expected " + (expected & 0xFF));
+        }
+    }
+
+    /**
+     * Receives the fields of a frame, in order:
+     *   startFrame, then per share set: header, [modulus], share..., endShareSet,
+     *   then endFrame.
+     * A single (non-batch) frame has exactly one share set.
+     *
+     * The byte[] passed to modulus() and share() is the reader's buffer:
+     *   it is only valid during the call and must not be kept.
+     */
+    public interface Listener
+    {
+        public void startFrame(boolean batch);
+
+        public void header(int n, int k);
+
+        /** only called if the share set has a modulus */
+        public void modulus(byte[] magnitude, int offset, int length);
+
+        public void share(int x, byte[] magnitude, int offset, int length);
+
+        /** the current share set was rejected; no more fields of it will be reported */
+        public void error(SecretShareException e);
+
+        public void endShareSet();
+
+        public void endFrame();
+    }
+}
@@ -0,0 +1,263 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import exceptions.SecretShareException;
+
+/**
+ * Blocking server: every accepted Socket is read with plain blocking reads
+ *   on a thread taken from the given executor, and each chunk is handed
+ *   to the connection's RequestDecoder as it arrives.
+ *
+ * Which executor is used decides the execution mode:
+ *   newThreadPerConnectionExecutor() gives each connection its own (virtual) thread,
+ *   Executors.newFixedThreadPool() bounds the server to a fixed number of platform threads.
+ *
+ * Requests pipelined on one connection are answered one after the other, in order.
+ * The connection is closed after the client has half-closed it (EOF)
+ *   and the last response has been written.
+ */
+public class BlockingServer
+    implements Runnable
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+    private static Logger logger = Logger.getLogger(BlockingServer.class.getName());
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * @return an executor that starts one virtual thread per task if the running JVM
+     *         supports virtual threads, otherwise one (cached) platform thread per task
+     */
+    public static ExecutorService newThreadPerConnectionExecutor()
+    {
+        try
+        {
+            // looked up reflectively, so the code still runs on JVMs without virtual threads
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            logger.info("virtual threads not available, using one platform thread per connection");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // ==================================================
+    // instance data
+    // ==================================================
+    private final RequestHandler handler;
+    private final ExecutorService connectionExecutor;
+    private final ServerSocket serverSocket;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param port to listen on
+     * @param inHandler to compute the responses
+     * @param inConnectionExecutor runs one task per accepted connection
+     * @throws SecretShareException if the port cannot be opened
+     */
+    public BlockingServer(final int port,
+                          final RequestHandler inHandler,
+                          final ExecutorService inConnectionExecutor)
+    {
+        handler = inHandler;
+        connectionExecutor = inConnectionExecutor;
+        try
+        {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port));
+        }
+        catch (IOException e)
+        {
+            throw new SecretShareException("Failed to open server on port " + port, e);
+        }
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * Accept connections until close() is called.
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (! serverSocket.isClosed())
+            {
+                final Socket clientSocket = serverSocket.accept();
+                try
+                {
+                    connectionExecutor.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            serve(clientSocket);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e)
+                {
+                    closeQuietly(clientSocket);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            if (! serverSocket.isClosed())
+            {
+                throw new SecretShareException("Accept loop failed", e);
+            }
+        }
+        finally
+        {
+            connectionExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stop accepting connections and end the accept loop.
+     */
+    public void close()
+    {
+        closeQuietly(serverSocket);
+        connectionExecutor.shutdownNow();
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private void serve(final Socket clientSocket)
+    {
+        try
+        {
+            clientSocket.setTcpNoDelay(true);
+            InputStream in = clientSocket.getInputStream();
+            OutputStream out = clientSocket.getOutputStream();
+            RequestDecoder decoder = handler.newDecoder();
+            List<RequestDecoder.Request> completed = new ArrayList<RequestDecoder.Request>();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            boolean failed = false;
+            int count;
+            while ((count = in.read(buffer)) >= 0)
+            {
+                // after a decode error, keep reading to EOF but discard the rest of the input
+                if (! failed)
+                {
+                    failed = decode(decoder, ByteBuffer.wrap(buffer, 0, count), completed, out);
+                }
+            }
+            if (! failed)
+            {
+                decode(decoder, null, completed, out);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.FINE, "connection dropped", e);
+        }
+        finally
+        {
+            closeQuietly(clientSocket);
+        }
+    }
+
+    /**
+     * Decode the bytes (or the end of input, if null) and answer every completed request in order.
+     *
+     * @return true if the input could not be decoded
+     */
+    private boolean decode(final RequestDecoder decoder,
+                           final ByteBuffer in,
+                           final List<RequestDecoder.Request> completed,
+                           final OutputStream out)
+        throws IOException
+    {
+        RuntimeException failure = null;
+        try
+        {
+            if (in != null)
+            {
+                decoder.decode(in, completed);
+            }
+            else
+            {
+                decoder.endOfInput(completed);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.log(Level.FINE, "decode failed", e);
+            failure = e;
+        }
+
+        for (RequestDecoder.Request request : completed)
+        {
+            out.write(respond(decoder, request));
+        }
+        completed.clear();
+        if (failure != null)
+        {
+            out.write(decoder.failure(failure));
+        }
+        out.flush();
+        return failure != null;
+    }
+
+    private static byte[] respond(final RequestDecoder decoder,
+                                  final RequestDecoder.Request request)
+    {
+        try
+        {
+            return request.respond();
+        }
+        catch (RuntimeException e)
+        {
+            logger.log(Level.FINE, "request failed", e);
+            return decoder.failure(e);
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable)
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.FINE, "close failed", e);
+        }
+    }
+}
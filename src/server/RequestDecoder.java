@@ -0,0 +1,56 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Per-connection request state.
+ *
+ * The server calls decode() with every chunk of bytes as it arrives.
+ * A connection can carry many requests one after the other (pipelining):
+ *   every request that is complete is handed back to the server,
+ *   which answers them in the order they were received.
+ * After the client has half-closed the connection (EOF) the server calls endOfInput().
+ *
+ * decode() and endOfInput() are called by one thread at a time.
+ * failure() and Request.respond() may be called from any thread.
+ */
+public interface RequestDecoder
+{
+    /**
+     * Consume all remaining bytes of the buffer.
+     *
+     * @param in bytes as received
+     * @param completed gets every request that was completed by these bytes, in order
+     * @throws exceptions.SecretShareException if the bytes cannot be decoded any further;
+     *         the connection is answered with failure() and closed
+     */
+    public void decode(final ByteBuffer in,
+                       final List<Request> completed);
+
+    /**
+     * The client will not send any more bytes.
+     *
+     * @param completed gets the last request, if the client did not terminate it
+     * @throws exceptions.SecretShareException if an unfinished request cannot be completed
+     */
+    public void endOfInput(final List<Request> completed);
+
+    /**
+     * @param e why decode(), endOfInput() or Request.respond() failed
+     * @return the raw bytes to send back to the client instead of a response
+     */
+    public byte[] failure(final RuntimeException e);
+
+    /**
+     * One complete request, answered on a worker thread.
+     */
+    public interface Request
+    {
+        /**
+         * @return the raw bytes to send back to the client
+         * @throws exceptions.SecretShareException if the request cannot be answered
+         */
+        public byte[] respond();
+    }
+}
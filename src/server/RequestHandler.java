@@ -0,0 +1,15 @@
+package server;
+
+/**
+ * Creates the per-connection decoders that turn the bytes received from a client
+ *   into the response that is written back on the same connection.
+ *
+ * Implementations are shared by all connections and must be thread-safe.
+ */
+public interface RequestHandler
+{
+    /**
+     * @return a new decoder, used for exactly one connection
+     */
+    public RequestDecoder newDecoder();
+}
@@ -0,0 +1,443 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import exceptions.SecretShareException;
+
+/**
+ * Long-running, selector-based server.
+ *
+ * One thread owns the selector and does all of the socket I/O:
+ *   it accepts connections, feeds every chunk it reads to the connection's
+ *   RequestDecoder as it arrives, and writes the responses back.
+ * Every complete request is answered on a fixed pool of worker threads,
+ *   so the (expensive) combine never blocks the I/O thread.
+ *
+ * A connection can pipeline many requests; they are answered concurrently,
+ *   but the responses are written in the order the requests were received.
+ * The connection is closed once the client has half-closed it (EOF)
+ *   and every response has been written.
+ * After input that cannot be decoded, the failure is answered in its place in the order,
+ *   and the rest of the input is read but ignored.
+ */
+public class SelectorServer
+    implements Runnable
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+    private static Logger logger = Logger.getLogger(SelectorServer.class.getName());
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Reading from a connection pauses while this many of its requests are unanswered.
+     *
+     * A soft limit: it is checked before each read, and everything one read returns is decoded,
+     *   so a READ_BUFFER_SIZE buffer full of small pipelined requests can take a connection
+     *   past it by as many requests as fit in that buffer [at most a few hundred text requests;
+     *   a binary batch is one request, bounded by BinaryShareProtocol.MAX_BATCH_COUNT].
+     */
+    private static final int MAX_REQUESTS_IN_FLIGHT = 128;
+
+    // ==================================================
+    // instance data
+    // ==================================================
+    private final RequestHandler handler;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // connections with newly answered requests, handed over from the workers to the selector thread
+    private final Queue<Connection> responsesReady = new ConcurrentLinkedQueue<Connection>();
+
+    // only used by the selector thread:
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final List<RequestDecoder.Request> completed = new ArrayList<RequestDecoder.Request>();
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    /**
+     * @param port to listen on
+     * @param inHandler to compute the responses
+     * @param workerThreads size of the worker pool
+     * @throws SecretShareException if the port cannot be opened
+     */
+    public SelectorServer(final int port,
+                          final RequestHandler inHandler,
+                          final int workerThreads)
+    {
+        if (workerThreads < 1)
+        {
+            throw new SecretShareException("worker threads must be positive, was " + workerThreads);
+        }
+        handler = inHandler;
+        workers = Executors.newFixedThreadPool(workerThreads);
+        try
+        {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e)
+        {
+            workers.shutdownNow();
+            throw new SecretShareException("Failed to open server on port " + port, e);
+        }
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * Run the selector loop until close() is called.
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (selector.isOpen())
+            {
+                selector.select();
+                registerReadyResponses();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable())
+                    {
+                        accept();
+                        continue;
+                    }
+                    try
+                    {
+                        if (key.isValid() && key.isWritable())
+                        {
+                            write(key);
+                        }
+                        if (key.isValid() && key.isReadable())
+                        {
+                            read(key);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        logger.log(Level.FINE, "connection dropped", e);
+                        closeQuietly(key);
+                    }
+                }
+            }
+        }
+        catch (ClosedSelectorException e)
+        {
+            // close() was called
+        }
+        catch (IOException e)
+        {
+            throw new SecretShareException("Selector loop failed", e);
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Stop accepting connections and end the selector loop.
+     */
+    public void close()
+    {
+        try
+        {
+            serverChannel.close();
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.FINE, "close failed", e);
+        }
+        workers.shutdownNow();
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    /**
+     * Accept one connection.  A failure (e.g. out of file descriptors) only costs that
+     *   connection: the server channel stays open, and the next select() tries again.
+     */
+    private void accept()
+    {
+        SocketChannel channel = null;
+        try
+        {
+            channel = serverChannel.accept();
+            if (channel == null)
+            {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ,
+                             new Connection(channel, handler.newDecoder()));
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.FINE, "accept failed", e);
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException closeFailed)
+                {
+                    logger.log(Level.FINE, "close failed", closeFailed);
+                }
+            }
+        }
+    }
+
+    private void read(final SelectionKey key)
+        throws IOException
+    {
+        final Connection connection = (Connection) key.attachment();
+
+        int count;
+        while (connection.inputOpen &&
+               (connection.pending.size() < MAX_REQUESTS_IN_FLIGHT) &&
+               ((count = connection.channel.read(readBuffer)) != 0))
+        {
+            if (count < 0)
+            {
+                connection.inputOpen = false;
+            }
+            if (connection.failed)
+            {
+                // after a decode error, keep reading to EOF but discard the rest of the input
+                readBuffer.clear();
+                continue;
+            }
+
+            RuntimeException failure = null;
+            try
+            {
+                if (count < 0)
+                {
+                    connection.decoder.endOfInput(completed);
+                }
+                else
+                {
+                    readBuffer.flip();
+                    connection.decoder.decode(readBuffer, completed);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                failure = e;
+            }
+            readBuffer.clear();
+
+            // requests completed before the failure are still answered, in order:
+            submit(connection);
+            if (failure != null)
+            {
+                connection.decodeFailed(failure);
+            }
+        }
+        write(key);
+    }
+
+    /**
+     * Queue every request completed by the last decode and hand them to the workers.
+     */
+    private void submit(final Connection connection)
+    {
+        for (final RequestDecoder.Request request : completed)
+        {
+            final Response response = new Response();
+            connection.pending.add(response);
+            workers.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    response.bytes = respond(connection.decoder, request);
+                    responsesReady.add(connection);
+                    selector.wakeup();
+                }
+            });
+        }
+        completed.clear();
+    }
+
+    private static byte[] respond(final RequestDecoder decoder,
+                                  final RequestDecoder.Request request)
+    {
+        try
+        {
+            return request.respond();
+        }
+        catch (RuntimeException e)
+        {
+            logger.log(Level.FINE, "request failed", e);
+            return decoder.failure(e);
+        }
+    }
+
+    private void registerReadyResponses()
+    {
+        Connection connection;
+        while ((connection = responsesReady.poll()) != null)
+        {
+            SelectionKey key = connection.channel.keyFor(selector);
+            if ((key != null) && key.isValid())
+            {
+                try
+                {
+                    write(key);
+                }
+                catch (IOException e)
+                {
+                    // e.g. the client reset the connection before its answer was ready
+                    logger.log(Level.FINE, "connection dropped", e);
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the answered requests, in order, up to the first one that is still being worked on.
+     * Closes the connection once there is nothing left to read or write.
+     */
+    private void write(final SelectionKey key)
+        throws IOException
+    {
+        Connection connection = (Connection) key.attachment();
+        while (true)
+        {
+            if ((connection.output == null) || (! connection.output.hasRemaining()))
+            {
+                Response head = connection.pending.peek();
+                if ((head == null) || (head.bytes == null))
+                {
+                    connection.output = null;
+                    break;
+                }
+                connection.pending.poll();
+                connection.output = ByteBuffer.wrap(head.bytes);
+            }
+            connection.channel.write(connection.output);
+            if (connection.output.hasRemaining())
+            {
+                // socket buffer is full, continue when it is writable again
+                break;
+            }
+        }
+
+        if ((! connection.inputOpen) &&
+            connection.pending.isEmpty() &&
+            (connection.output == null))
+        {
+            closeQuietly(key);
+            return;
+        }
+
+        int ops = 0;
+        if (connection.inputOpen && (connection.pending.size() < MAX_REQUESTS_IN_FLIGHT))
+        {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (connection.output != null)
+        {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void closeQuietly(final SelectionKey key)
+    {
+        key.cancel();
+        try
+        {
+            key.channel().close();
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.FINE, "close failed", e);
+        }
+    }
+
+    /**
+     * Per-connection state, attached to the connection's SelectionKey.
+     * Only used by the selector thread, except Response.bytes.
+     */
+    private static class Connection
+    {
+        private final SocketChannel channel;
+        private final RequestDecoder decoder;
+        // unwritten responses, in the order the requests were received
+        private final Queue<Response> pending = new ArrayDeque<Response>();
+        // the response being written, null if none
+        private ByteBuffer output;
+        // false after EOF
+        private boolean inputOpen = true;
+        // true after a decode error
+        private boolean failed = false;
+
+        public Connection(final SocketChannel inChannel,
+                          final RequestDecoder inDecoder)
+        {
+            channel = inChannel;
+            decoder = inDecoder;
+        }
+
+        /**
+         * The rest of the input cannot be decoded: answer with the failure, decode no more.
+         */
+        public void decodeFailed(final RuntimeException e)
+        {
+            logger.log(Level.FINE, "decode failed", e);
+            Response response = new Response();
+            response.bytes = decoder.failure(e);
+            pending.add(response);
+            failed = true;
+        }
+    }
+
+    /**
+     * Slot for one response; filled in by a worker.
+     */
+    private static class Response
+    {
+        private volatile byte[] bytes;
+    }
+}
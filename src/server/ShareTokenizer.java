@@ -0,0 +1,260 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+import exceptions.SecretShareException;
+
+/**
+ * Incremental tokenizer for the text request format
+ *     n|k|modulus|share1|share2|...|shareN|
+ *
+ * Bytes are fed in as they arrive, in ByteBuffers of any size.
+ * Every field is reported to the Listener as soon as its closing '|' has been seen,
+ *   so the request never has to be held in memory as a whole:
+ *   only the field that is currently being read is buffered.
+ *
+ * A request ends with a ';' where the next field would start (i.e. right after a '|'),
+ *   or with the end of the input.  Several requests can be sent one after the other
+ *   on the same connection, each terminated by ';':
+ *     n|k|modulus|share1|...|shareN|;n|k|modulus|share1|...|shareN|;
+ * Line breaks (CR, LF), blank lines included, are ignored anywhere in the request,
+ *   so clients can wrap long requests as they could when the request was read line by line;
+ *   a client that sends one request and then closes its output needs no ';'.
+ * Anything after the last '|' of a request is not a field and is ignored.
+ *
+ * A field that the Listener rejects fails only its own request: the Listener is told once
+ *   through error(), the rest of that request is skipped, and the next request is read normally.
+ */
+public class ShareTokenizer
+{
+    // ==================================================
+    // class static data
+    // ==================================================
+
+    /**
+     * Default for the longest single field accepted.
+     * A 4096-bit share is about 1,300 characters, both as decimal and as bigintcs.
+     */
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 64 * 1024;
+
+    private static final byte SPLIT = '|';
+    private static final byte END = ';';
+
+    // ==================================================
+    // class static methods
+    // ==================================================
+
+    /**
+     * Parse a header field such as n or k.
+     *
+     * @param token bytes of the field
+     * @param offset of the first byte
+     * @param length of the field
+     * @param what field name, used in the error message
+     * @return value
+     * @throws SecretShareException if the field is not a non-negative int
+     */
+    public static int parseInt(final byte[] token,
+                               final int offset,
+                               final int length,
+                               final String what)
+    {
+        if ((length == 0) || (length > 9))
+        {
+            throw new SecretShareException(what + " must be a number with 1 to 9 digits");
+        }
+        int ret = 0;
+        for (int i = offset, end = offset + length; i < end; i++)
+        {
+            int digit = token[i] - '0';
+            if ((digit < 0) || (digit > 9))
+            {
+                throw new SecretShareException(what + " is not a number");
+            }
+            ret = (ret * 10) + digit;
+        }
+        return ret;
+    }
+
+    // ==================================================
+    // instance data
+    // ==================================================
+    private final Listener listener;
+    private final int maxTokenLength;
+
+    // the field being read; reused for every field
+    private byte[] token = new byte[256];
+    private int tokenLength = 0;
+
+    // 0=n, 1=k, 2=modulus, 3 and up are shares
+    private int fieldIndex = 0;
+
+    // anything but line breaks seen since the last request ended?
+    private boolean inRequest = false;
+    // was the last byte (line breaks aside) a '|', or has the request not started?
+    private boolean atFieldStart = true;
+    // the current request was rejected, skip to its end
+    private boolean failed = false;
+
+    // ==================================================
+    // constructors
+    // ==================================================
+
+    public ShareTokenizer(final Listener inListener)
+    {
+        this(inListener, DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
+    public ShareTokenizer(final Listener inListener,
+                          final int inMaxTokenLength)
+    {
+        listener = inListener;
+        maxTokenLength = inMaxTokenLength;
+    }
+
+    // ==================================================
+    // public methods
+    // ==================================================
+
+    /**
+     * Consume all remaining bytes of the buffer.
+     *
+     * Fields that are too long or that the Listener rejects are reported through Listener.error().
+     *
+     * @param in bytes as received
+     */
+    public void consume(final ByteBuffer in)
+    {
+        while (in.hasRemaining())
+        {
+            final byte b = in.get();
+            if ((b == END) && atFieldStart)
+            {
+                if (inRequest)
+                {
+                    endRequest();
+                }
+            }
+            else if ((b != '\n') && (b != '\r'))
+            {
+                inRequest = true;
+                atFieldStart = (b == SPLIT);
+                if (failed)
+                {
+                    continue;
+                }
+                if (b == SPLIT)
+                {
+                    completeField();
+                }
+                else
+                {
+                    if ((tokenLength < token.length) || growToken())
+                    {
+                        token[tokenLength++] = b;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The input has ended; this also ends a request that was not terminated by ';'.
+     */
+    public void endOfInput()
+    {
+        if (inRequest)
+        {
+            endRequest();
+        }
+    }
+
+    // ==================================================
+    // non public methods
+    // ==================================================
+
+    private void completeField()
+    {
+        final int length = tokenLength;
+        tokenLength = 0;
+        try
+        {
+            switch (fieldIndex++)
+            {
+                case 0:
+                    listener.totalNumberOfShares(parseInt(token, 0, length, "n"));
+                    break;
+                case 1:
+                    listener.numberOfSharesToCombine(parseInt(token, 0, length, "k"));
+                    break;
+                case 2:
+                    listener.modulus(token, 0, length);
+                    break;
+                default:
+                    listener.share(token, 0, length);
+                    break;
+            }
+        }
+        catch (SecretShareException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * @return false if the field is already as long as allowed (which fails the request)
+     */
+    private boolean growToken()
+    {
+        if (token.length >= maxTokenLength)
+        {
+            tokenLength = 0;
+            fail(new SecretShareException("field " + fieldIndex + " is longer than " +
+                                          maxTokenLength + " bytes"));
+            return false;
+        }
+        byte[] bigger = new byte[Math.min(token.length * 2, maxTokenLength)];
+        System.arraycopy(token, 0, bigger, 0, tokenLength);
+        token = bigger;
+        return true;
+    }
+
+    private void fail(final SecretShareException e)
+    {
+        failed = true;
+        listener.error(e);
+    }
+
+    private void endRequest()
+    {
+        tokenLength = 0;
+        fieldIndex = 0;
+        inRequest = false;
+        atFieldStart = true;
+        failed = false;
+        listener.end();
+    }
+
+    /**
+     * Receives the fields of a request, in order.
+     *
+     * The byte[] passed to modulus() and share() is the tokenizer's buffer:
+     *   it is only valid during the call and must not be kept.
+     */
+    public interface Listener
+    {
+        public void totalNumberOfShares(int n);
+
+        public void numberOfSharesToCombine(int k);
+
+        public void modulus(byte[] token, int offset, int length);
+
+        public void share(byte[] token, int offset, int length);
+
+        /** the current request was rejected; no more fields of it will be reported */
+        public void error(SecretShareException e);
+
+        /** the current request is complete */
+        public void end();
+    }
+}